@@ -0,0 +1,89 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Times writing every file of a tree to the working directory through the
+ * Java heap, with Blob.read and writeContents, against Blob.checkout,
+ * which copies whole blobs with FileChannel.transferTo or inflates them a
+ * buffer at a time. Each path is timed with loose blobs and again after
+ * they are packed, and the size of the stored blobs is reported.
+ *
+ * Usage: java gitlet.CheckoutBenchmark [FILES] [SIZE] [LEVEL], run in an
+ * empty directory, which becomes a Gitlet repository holding FILES files
+ * of SIZE bytes of random words, stored at compression LEVEL. The defaults
+ * are 10000 files of 4096 bytes at the default level.
+ */
+public class CheckoutBenchmark {
+    private static final int ROUNDS = 3;
+    private static final String[] WORDS = {
+        "the", "commit", "branch", "merge", "blob", "tree", "file", "head",
+        "checkout", "status", "staged", "removed", "split", "point", "log",
+        "version", "control", "system", "gitlet", "repository"
+    };
+
+    public static void main(String[] args) {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        if (Repository.CWD.list().length != 0) {
+            Main.exit("Run the benchmark in an empty directory.");
+        }
+        Repository.init();
+        if (args.length > 2) {
+            Config.set(Config.COMPRESSION, args[2]);
+        }
+        Random random = new Random(61);
+        Map<String, String> tree = new TreeMap<>();
+        for (int i = 0; i < files; i += 1) {
+            Blob blob = new Blob(words(random, size));
+            blob.save();
+            tree.put("file" + i + ".bin", blob.getId());
+        }
+        System.out.printf("Checking out %d files of %d bytes, "
+            + "compression level %d%n", files, size,
+            Config.getInt(Config.COMPRESSION));
+        System.out.printf("%8s %8s %12s %12s%n",
+            "objects", "round", "heap (ms)", "mapped (ms)");
+        time("loose", tree);
+        Blob.repack();
+        time("packed", tree);
+        System.out.printf("%d bytes of files stored in %d bytes%n",
+            (long) files * size,
+            join(ObjectStore.PACKS, "blobs.pack").length());
+    }
+
+    /** Returns SIZE bytes of text made of random words. */
+    private static byte[] words(Random random, int size) {
+        StringBuilder text = new StringBuilder(size + 16);
+        while (text.length() < size) {
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+            text.append(random.nextInt(12) == 0 ? '\n' : ' ');
+        }
+        text.setLength(size);
+        return text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void time(String layout, Map<String, String> tree) {
+        for (int round = 1; round <= ROUNDS; round += 1) {
+            long start = System.nanoTime();
+            for (Map.Entry<String, String> entry : tree.entrySet()) {
+                byte[] contents = Blob.read(entry.getValue());
+                writeContents(
+                    join(Repository.CWD, entry.getKey()), (Object) contents);
+            }
+            long heap = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (Map.Entry<String, String> entry : tree.entrySet()) {
+                Blob.checkout(
+                    entry.getValue(), join(Repository.CWD, entry.getKey()));
+            }
+            long mapped = System.nanoTime() - start;
+            System.out.printf("%8s %8d %12.1f %12.1f%n",
+                layout, round, heap / 1e6, mapped / 1e6);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Times encoding and decoding commits and a staging area with the binary
+ * encoding against Java serialization of classes with the same fields,
+ * which is how gitlet stored them before, and compares their sizes.
+ *
+ * Usage: java gitlet.EncodingBenchmark [COMMITS] [FILES], run in an empty
+ * directory, which becomes a Gitlet repository with COMMITS commits and a
+ * staging area of FILES files. The defaults are 20000 commits and 1000
+ * files.
+ */
+public class EncodingBenchmark {
+    private static final int ROUNDS = 5;
+
+    /** The fields of a commit as Java serialization stored them. */
+    private static class SerialCommit implements Serializable {
+        private String message;
+        private String timestamp;
+        private long time;
+        private int generation;
+        private String id;
+        private String firstParent;
+        private String secondParent;
+        private String tree;
+
+        SerialCommit(Commit commit) {
+            message = commit.getMessage();
+            timestamp = commit.getTimestamp();
+            time = commit.getTime();
+            generation = commit.getGeneration();
+            id = commit.getId();
+            firstParent = commit.getfirstParent();
+            secondParent = commit.getSecondParent();
+            tree = commit.getTree();
+        }
+    }
+
+    /** The fields of a staging area as Java serialization stored them. */
+    private static class SerialStage implements Serializable {
+        private Map<String, String> addition;
+        private Set<String> removal;
+
+        SerialStage(StagingArea stage) {
+            addition = new TreeMap<>(stage.getAddition());
+            removal = new TreeSet<>(stage.getRemoval());
+        }
+    }
+
+    public static void main(String[] args) {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int files = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        if (Repository.CWD.list().length != 0) {
+            Main.exit("Run the benchmark in an empty directory.");
+        }
+        Repository.init();
+        List<String> ids = new ArrayList<>();
+        Commit commit = new Commit();
+        commit.save();
+        for (int i = 1; i < commits; i += 1) {
+            commit = new Commit("commit number " + i, commit.getId());
+            commit.save();
+            ids.add(commit.getId());
+        }
+        StagingArea stage = new StagingArea();
+        for (int i = 0; i < files; i += 1) {
+            stage.getAddition().put("file" + i + ".txt", sha1("" + i));
+        }
+
+        List<Commit> loaded = new ArrayList<>();
+        for (String id : ids) {
+            loaded.add(Commit.load(id));
+        }
+        System.out.printf("%d commits, staging area of %d files%n",
+            ids.size(), files);
+        System.out.printf("%-22s %12s %12s %12s %12s%n",
+            "object", "format", "bytes", "encode (ms)", "decode (ms)");
+        for (int round = 1; round <= ROUNDS; round += 1) {
+            List<byte[]> serial = new ArrayList<>();
+            long start = System.nanoTime();
+            for (Commit c : loaded) {
+                serial.add(serialize(new SerialCommit(c)));
+            }
+            long serialEncode = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (byte[] bytes : serial) {
+                deserialize(bytes, SerialCommit.class);
+            }
+            long serialDecode = System.nanoTime() - start;
+            List<byte[]> binary = new ArrayList<>();
+            start = System.nanoTime();
+            for (Commit c : loaded) {
+                binary.add(c.encode());
+            }
+            long binaryEncode = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < binary.size(); i += 1) {
+                Commit.decode(binary.get(i), ids.get(i));
+            }
+            long binaryDecode = System.nanoTime() - start;
+            print("commits " + round, "serial", size(serial),
+                serialEncode, serialDecode);
+            print("commits " + round, "binary", size(binary),
+                binaryEncode, binaryDecode);
+        }
+        for (int round = 1; round <= ROUNDS; round += 1) {
+            long start = System.nanoTime();
+            byte[] serialStage = null;
+            for (int i = 0; i < 100; i += 1) {
+                serialStage = serialize(new SerialStage(stage));
+            }
+            long serialEncode = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < 100; i += 1) {
+                deserialize(serialStage, SerialStage.class);
+            }
+            long serialDecode = System.nanoTime() - start;
+            start = System.nanoTime();
+            byte[] binaryStage = null;
+            for (int i = 0; i < 100; i += 1) {
+                binaryStage = stage.encode();
+            }
+            long binaryEncode = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < 100; i += 1) {
+                StagingArea.decode(binaryStage);
+            }
+            long binaryDecode = System.nanoTime() - start;
+            print("stage x100 " + round, "serial", serialStage.length,
+                serialEncode, serialDecode);
+            print("stage x100 " + round, "binary", binaryStage.length,
+                binaryEncode, binaryDecode);
+        }
+    }
+
+    private static long size(List<byte[]> objects) {
+        long size = 0;
+        for (byte[] bytes : objects) {
+            size += bytes.length;
+        }
+        return size;
+    }
+
+    private static void print(
+        String object,
+        String format,
+        long bytes,
+        long encode,
+        long decode) {
+        System.out.printf("%-22s %12s %12d %12.1f %12.1f%n",
+            object, format, bytes, encode / 1e6, decode / 1e6);
+    }
+}
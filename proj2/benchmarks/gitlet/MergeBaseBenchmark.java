@@ -0,0 +1,161 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Times merge-base searches on a synthetic in-memory history, comparing
+ * MergeBase with the breadth-first search gitlet used before, which visits
+ * every ancestor of the current commit. Also checks that a criss-cross
+ * merge yields one of its two best common ancestors.
+ *
+ * Usage: java gitlet.MergeBaseBenchmark [COMMITS], where COMMITS defaults
+ * to 1000000. The history is a main line in which about one commit in
+ * twenty merges a recent earlier commit, topped by two branches of
+ * DIVERGED commits each.
+ */
+public class MergeBaseBenchmark {
+    private static final int DIVERGED = 5;
+
+    /** A history whose commit IDs are the decimal positions of commits. */
+    private static class Synthetic implements MergeBase.History {
+        private final int[][] parents;
+        private final int[] generations;
+
+        Synthetic(int size) {
+            parents = new int[size][];
+            generations = new int[size];
+        }
+
+        void add(int id, int... parentIds) {
+            parents[id] = parentIds;
+            int generation = 0;
+            for (int parent : parentIds) {
+                generation = Math.max(generation, generations[parent]);
+            }
+            generations[id] = generation + 1;
+        }
+
+        @Override
+        public String[] parents(String id) {
+            int[] ids = parents[Integer.parseInt(id)];
+            String[] result = new String[ids.length];
+            for (int i = 0; i < ids.length; i += 1) {
+                result[i] = Integer.toString(ids[i]);
+            }
+            return result;
+        }
+
+        @Override
+        public int generation(String id) {
+            return generations[Integer.parseInt(id)];
+        }
+
+        @Override
+        public long time(String id) {
+            return Integer.parseInt(id);
+        }
+
+        @Override
+        public boolean isAncestor(String ancestor, String id) {
+            int floor = generation(ancestor);
+            Deque<String> stack = new ArrayDeque<>();
+            Set<String> visited = new HashSet<>();
+            stack.push(id);
+            while (!stack.isEmpty()) {
+                String current = stack.pop();
+                if (current.equals(ancestor)) {
+                    return true;
+                }
+                if (visited.add(current) && generation(current) > floor) {
+                    for (String parent : parents(current)) {
+                        stack.push(parent);
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Random random = new Random(61);
+        Synthetic history = new Synthetic(size + 2 * DIVERGED);
+        history.add(0);
+        for (int i = 1; i < size; i += 1) {
+            if (i > 2 && random.nextInt(20) == 0) {
+                history.add(i, i - 1, Math.max(0, i - 2 - random.nextInt(100)));
+            } else {
+                history.add(i, i - 1);
+            }
+        }
+        int fork = size - 1;
+        int current = fork;
+        int given = fork;
+        for (int i = 0; i < DIVERGED; i += 1) {
+            history.add(size + i, current);
+            current = size + i;
+            history.add(size + DIVERGED + i, given);
+            given = size + DIVERGED + i;
+        }
+        String one = Integer.toString(current);
+        String two = Integer.toString(given);
+
+        long start = System.nanoTime();
+        String base = MergeBase.find(history, one, two);
+        long walk = System.nanoTime() - start;
+        start = System.nanoTime();
+        String old = breadthFirst(history, one, two);
+        long bfs = System.nanoTime() - start;
+        System.out.printf("%d commits, branches diverged %d commits ago%n",
+            size, DIVERGED);
+        System.out.printf("%-20s %12s %12s%n", "search", "base", "time (ms)");
+        System.out.printf("%-20s %12s %12.2f%n", "generation walk", base,
+            walk / 1e6);
+        System.out.printf("%-20s %12s %12.2f%n", "breadth-first", old,
+            bfs / 1e6);
+
+        Synthetic crissCross = new Synthetic(7);
+        crissCross.add(0);
+        crissCross.add(1, 0);
+        crissCross.add(2, 0);
+        crissCross.add(3, 1, 2);
+        crissCross.add(4, 2, 1);
+        crissCross.add(5, 3);
+        crissCross.add(6, 4);
+        System.out.printf("criss-cross bases %s, best %s%n",
+            MergeBase.findAll(crissCross, "5", "6"),
+            MergeBase.find(crissCross, "5", "6"));
+    }
+
+    /** The merge-base search gitlet used before MergeBase. */
+    private static String breadthFirst(
+        MergeBase.History history,
+        String currentId,
+        String givenId) {
+        Queue<String> queue = new LinkedList<>();
+        Set<String> visited = new HashSet<>();
+        queue.add(currentId);
+        while (!queue.isEmpty()) {
+            String id = queue.poll();
+            if (visited.add(id)) {
+                queue.addAll(Arrays.asList(history.parents(id)));
+            }
+        }
+        queue.add(givenId);
+        while (!queue.isEmpty()) {
+            String id = queue.poll();
+            if (visited.contains(id)) {
+                return id;
+            }
+            queue.addAll(Arrays.asList(history.parents(id)));
+        }
+        return null;
+    }
+}
@@ -1,23 +1,88 @@
 package gitlet;
 
 import static gitlet.Utils.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.Serializable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-/** Represents a blob in a Gitlet repository. */
-public class Blob implements Serializable {
+/**
+ * Represents a blob in a Gitlet repository. A blob is stored whole, as a
+ * delta against an earlier version, or, when the blob.chunking setting is
+ * on, as the list of the content-defined chunks it is made of, which are
+ * stored once however many blobs contain them.
+ */
+public class Blob {
     public static final File BLOBS = join(Repository.GITLET, "blobs");
+    public static final File CHUNKS = join(Repository.GITLET, "chunks");
+    private static final ObjectStore STORE = new ObjectStore(BLOBS, "blobs");
+    private static final ObjectStore CHUNK_STORE
+        = new ObjectStore(CHUNKS, "chunks");
+    // Kinds of stored blobs, recorded in the first byte of the object.
+    private static final byte RAW = 0;
+    private static final byte DELTA = 1;
+    private static final byte CHUNKED = 2;
+    // Blobs smaller than this are never split into chunks.
+    private static final int MIN_CHUNKED_SIZE = 2 * Chunker.AVG_SIZE;
+    // Binary ID and length of each chunk of a chunked blob.
+    private static final int CHUNK_RECORD_SIZE = 20 + 4;
+    // Longest chain of deltas read to reconstruct a blob.
+    private static final int MAX_DEPTH = 10;
+    // Blobs smaller than this are always stored whole.
+    private static final int MIN_DELTA_SIZE = 512;
+    // Blobs larger than this are never loaded to build a delta.
+    private static final long MAX_DELTA_SIZE = 64L << 20;
+    // Kind, depth, and base ID that precede a delta.
+    private static final int DELTA_HEADER_SIZE = 2 + UID_LENGTH;
+    // Size of the chunks in which file contents are hashed and copied.
+    private static final int BUFFER_SIZE = 1 << 16;
 
     private byte[] contents;
+    // File holding the contents when they are not loaded into memory.
+    private File source;
+    private final long size;
     private final String id;
 
     public Blob(byte[] fileContents) {
         contents = fileContents;
+        size = contents.length;
         id = hash();
     }
 
+    /**
+     * Creates the blob for the contents of FILE, which are hashed and later
+     * stored in fixed-size chunks, so memory use does not grow with the
+     * size of the file.
+     */
+    public Blob(File file) {
+        source = file;
+        size = file.length();
+        id = sha1(header(size), file, BUFFER_SIZE);
+    }
+
     private String hash() {
-        return sha1(serialize(contents));
+        return sha1(header(size), contents);
+    }
+
+    /**
+     * Returns the bytes hashed before the contents to make the blob ID:
+     * "blob" and the length in decimal, ending with a zero byte. It holds
+     * no format version, so blob IDs outlast changes to how objects are
+     * stored.
+     */
+    private static byte[] header(long length) {
+        return ("blob " + length + "\0")
+            .getBytes(StandardCharsets.US_ASCII);
     }
 
     public String getId() {
@@ -25,6 +90,325 @@ public class Blob implements Serializable {
     }
 
     public void save() {
-        writeContents(join(BLOBS, id), (Object) contents);
+        save(null);
+    }
+
+    /**
+     * Saves the blob, as a delta against the blob with the given ID if that
+     * is less than half the size of the contents and the chain of deltas
+     * stays within the maximum depth.
+     */
+    public void save(String baseId) {
+        if (STORE.contains(id)) {
+            return;
+        }
+        if (size >= MIN_CHUNKED_SIZE && Config.getBoolean(Config.CHUNKING)) {
+            STORE.write(id, chunk());
+            return;
+        }
+        if (baseId != null && !baseId.equals(id) && size >= MIN_DELTA_SIZE
+            && size <= MAX_DELTA_SIZE) {
+            byte[] delta = delta(baseId);
+            if (delta != null) {
+                STORE.write(id, delta);
+                return;
+            }
+        }
+        if (contents == null) {
+            STORE.write(id, new byte[] {RAW}, source);
+        } else {
+            STORE.write(id, new byte[] {RAW}, contents);
+        }
+    }
+
+    /**
+     * Stores each chunk of the contents that is not stored yet, and returns
+     * the stored form of the blob that lists the chunks.
+     */
+    private byte[] chunk() {
+        ByteArrayOutputStream list = new ByteArrayOutputStream();
+        list.write(CHUNKED);
+        try (InputStream in = contents == null
+                 ? new FileInputStream(source)
+                 : new ByteArrayInputStream(contents)) {
+            Chunker chunker = new Chunker(in);
+            for (byte[] chunk = chunker.next(); chunk != null;
+                 chunk = chunker.next()) {
+                String chunkId = sha1(chunk);
+                CHUNK_STORE.write(chunkId, chunk);
+                list.writeBytes(Pack.toBytes(chunkId));
+                list.writeBytes(
+                    ByteBuffer.allocate(4).putInt(chunk.length).array());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return list.toByteArray();
+    }
+
+    /** Returns the contents, reading them from the source file if needed. */
+    private byte[] getContents() {
+        if (contents == null) {
+            return readContents(source);
+        }
+        return contents;
+    }
+
+    /**
+     * Returns the stored form of the blob as a delta against the blob with
+     * the given ID, or null if a delta is not worthwhile.
+     */
+    private byte[] delta(String baseId) {
+        ByteBuffer stored = STORE.map(baseId);
+        if (stored == null) {
+            return null;
+        }
+        int depth = stored.get(0) == DELTA ? stored.get(1) + 1 : 1;
+        if (depth > MAX_DEPTH) {
+            return null;
+        }
+        byte[] target = getContents();
+        byte[] delta = Delta.create(decode(stored), target,
+            target.length / 2 - DELTA_HEADER_SIZE);
+        if (delta == null) {
+            return null;
+        }
+        byte[] result = new byte[DELTA_HEADER_SIZE + delta.length];
+        result[0] = DELTA;
+        result[1] = (byte) depth;
+        byte[] base = baseId.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(base, 0, result, 2, UID_LENGTH);
+        System.arraycopy(delta, 0, result, DELTA_HEADER_SIZE, delta.length);
+        return result;
+    }
+
+    /** Returns the contents of the blob with the given ID. */
+    public static byte[] read(String id) {
+        return decode(map(id));
+    }
+
+    /**
+     * Returns the contents of the blob with the given ID, mapped into memory
+     * when the blob is stored whole and uncompressed.
+     */
+    public static ByteBuffer readBuffer(String id) {
+        ByteBuffer stored = map(id);
+        if (stored.get(0) == RAW) {
+            return stored.slice(1, stored.limit() - 1);
+        }
+        return ByteBuffer.wrap(decode(stored));
+    }
+
+    /**
+     * Writes the contents of the blob with the given ID to FILE. Whole
+     * blobs and chunks are copied with FileChannel.transferTo, or inflated
+     * one buffer at a time if compressed, and deltas are decoded from
+     * memory-mapped objects.
+     */
+    public static void checkout(String id, File file) {
+        if (kind(id) == RAW) {
+            writeWhole(id, file);
+            return;
+        }
+        ByteBuffer stored = map(id);
+        if (stored.get(0) == CHUNKED) {
+            writeChunks(stored, file);
+        } else {
+            writeContents(file, (Object) decode(stored));
+        }
+    }
+
+    /** Returns the kind of the stored blob with the given ID. */
+    private static byte kind(String id) {
+        byte[] head = STORE.readHead(id, 1);
+        if (head == null) {
+            throw error("Missing blob %s.", id);
+        }
+        return head[0];
+    }
+
+    /** Copies the contents of the whole blob with the given ID to FILE. */
+    private static void writeWhole(String id, File file) {
+        try (FileChannel out = FileChannel.open(file.toPath(),
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            STORE.transferTo(id, 1, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static ByteBuffer map(String id) {
+        ByteBuffer stored = STORE.map(id);
+        if (stored == null) {
+            throw error("Missing blob %s.", id);
+        }
+        return stored;
+    }
+
+    /** Copies the chunks of a chunked blob to FILE one after another. */
+    private static void writeChunks(ByteBuffer stored, File file) {
+        try (FileChannel out = FileChannel.open(file.toPath(),
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i < chunkCount(stored); i += 1) {
+                String chunkId = chunkId(stored, i);
+                if (!CHUNK_STORE.transferTo(chunkId, 0, out)) {
+                    throw error("Missing chunk %s.", chunkId);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the contents of a chunked blob by joining its chunks. */
+    private static byte[] readChunks(ByteBuffer stored) {
+        long size = 0;
+        for (int i = 0; i < chunkCount(stored); i += 1) {
+            size += chunkLength(stored, i);
+        }
+        byte[] bytes = new byte[Math.toIntExact(size)];
+        int position = 0;
+        for (int i = 0; i < chunkCount(stored); i += 1) {
+            String chunkId = chunkId(stored, i);
+            byte[] chunk = CHUNK_STORE.read(chunkId);
+            if (chunk == null) {
+                throw error("Missing chunk %s.", chunkId);
+            }
+            System.arraycopy(chunk, 0, bytes, position, chunk.length);
+            position += chunk.length;
+        }
+        return bytes;
+    }
+
+    private static int chunkCount(ByteBuffer stored) {
+        return (stored.limit() - 1) / CHUNK_RECORD_SIZE;
+    }
+
+    private static String chunkId(ByteBuffer stored, int i) {
+        byte[] bytes = new byte[20];
+        stored.get(1 + i * CHUNK_RECORD_SIZE, bytes);
+        return Pack.toHex(bytes);
+    }
+
+    private static int chunkLength(ByteBuffer stored, int i) {
+        return stored.getInt(1 + i * CHUNK_RECORD_SIZE + 20);
+    }
+
+    /** Returns the contents of a blob from its stored form. */
+    private static byte[] decode(ByteBuffer stored) {
+        byte[] bytes;
+        if (stored.get(0) == RAW) {
+            bytes = new byte[stored.limit() - 1];
+            stored.get(1, bytes);
+            return bytes;
+        } else if (stored.get(0) == CHUNKED) {
+            return readChunks(stored);
+        }
+        byte[] base = new byte[UID_LENGTH];
+        stored.get(2, base);
+        String baseId = new String(base, StandardCharsets.US_ASCII);
+        bytes = new byte[stored.limit() - DELTA_HEADER_SIZE];
+        stored.get(DELTA_HEADER_SIZE, bytes);
+        return Delta.apply(read(baseId), bytes);
+    }
+
+    /**
+     * Moves the loose blobs into the packfile, and the loose chunks into
+     * theirs. Returns the number of blobs packed.
+     */
+    public static int repack() {
+        CHUNK_STORE.repack();
+        return STORE.repack();
+    }
+
+    /**
+     * Adds the blob with the given ID to BLOBS with the blobs its deltas
+     * are based on, and the chunks it is made of to CHUNKS. Only the kind
+     * and base of a delta are read.
+     */
+    public static void reach(String id, Set<String> blobs, Set<String> chunks) {
+        while (id != null && blobs.add(id)) {
+            byte[] head = STORE.readHead(id, DELTA_HEADER_SIZE);
+            if (head == null) {
+                return;
+            }
+            if (head[0] == CHUNKED) {
+                ByteBuffer stored = map(id);
+                for (int i = 0; i < chunkCount(stored); i += 1) {
+                    chunks.add(chunkId(stored, i));
+                }
+                return;
+            }
+            id = head[0] == DELTA
+                ? new String(head, 2, UID_LENGTH, StandardCharsets.US_ASCII)
+                : null;
+        }
+    }
+
+    /**
+     * Returns the IDs of the blobs not in REACHED that were stored at or
+     * after CUTOFF.
+     */
+    public static List<String> recent(Set<String> reached, long cutoff) {
+        return STORE.recent(reached, cutoff);
+    }
+
+    /**
+     * Deletes the blobs not in BLOBS and the chunks not in CHUNKS that were
+     * stored before CUTOFF. Returns the number of bytes freed.
+     */
+    public static long prune(
+        Set<String> blobs,
+        Set<String> chunks,
+        long cutoff) {
+        return STORE.prune(blobs, cutoff) + CHUNK_STORE.prune(chunks, cutoff);
+    }
+
+    /** Counts of the stored blobs and chunks. */
+    public static class Stats {
+        public int blobs;
+        // Blobs stored as deltas, and the longest chain of them.
+        public int deltas;
+        public int longestChain;
+        public int chunkedBlobs;
+        // Total size of the chunked blobs.
+        public long chunkedBytes;
+        // Distinct chunks used by the chunked blobs, and their total size.
+        public int chunks;
+        public long chunkBytes;
+    }
+
+    /**
+     * Returns the counts of the stored blobs, the deltas among them, and
+     * the chunks they use.
+     */
+    public static Stats stats() {
+        Stats stats = new Stats();
+        Map<String, Integer> chunks = new HashMap<>();
+        for (String id : STORE.ids()) {
+            stats.blobs += 1;
+            byte[] head = STORE.readHead(id, 2);
+            if (head[0] == DELTA) {
+                stats.deltas += 1;
+                stats.longestChain = Math.max(stats.longestChain, head[1]);
+            }
+            if (head[0] != CHUNKED) {
+                continue;
+            }
+            ByteBuffer stored = map(id);
+            stats.chunkedBlobs += 1;
+            for (int i = 0; i < chunkCount(stored); i += 1) {
+                int length = chunkLength(stored, i);
+                stats.chunkedBytes += length;
+                chunks.put(chunkId(stored, i), length);
+            }
+        }
+        stats.chunks = chunks.size();
+        for (int length : chunks.values()) {
+            stats.chunkBytes += length;
+        }
+        return stats;
     }
 }
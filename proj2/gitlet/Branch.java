@@ -8,7 +8,7 @@ public class Branch {
     public static final File BRANCHES = join(Repository.GITLET, "branches");
     
     public static void setId(String branch, String id) {
-        writeContents(join(BRANCHES, branch), id);
+        Journal.write(join(BRANCHES, branch), id);
     }
 
     public static String getId(String branch) {
@@ -0,0 +1,100 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Splits a stream into content-defined chunks with a Gear rolling hash, as
+ * in FastCDC. A chunk ends where the top bits of the hash of the bytes
+ * before it are all zero, so an insertion only changes the chunks around
+ * it and files that share a region share the chunks inside it. A stricter
+ * test before the average size and a looser one after it keep most chunks
+ * close to that size.
+ */
+class Chunker {
+    static final int MIN_SIZE = 2 << 10;
+    static final int AVG_SIZE = 8 << 10;
+    static final int MAX_SIZE = 64 << 10;
+    // Random value of each byte, fixed so every repository cuts alike.
+    private static final long[] GEAR = new long[256];
+    static {
+        Random random = new Random(61);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+    /*
+     * Cuts need 15 zero bits before the average size and 11 after it,
+     * against the 13 bits that average 8 KiB.
+     */
+    private static final long MASK_SMALL = -1L << (64 - 15);
+    private static final long MASK_LARGE = -1L << (64 - 11);
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[MAX_SIZE];
+    // Unread bytes are buffer[start, end).
+    private int start;
+    private int end;
+    private boolean eof;
+
+    Chunker(InputStream input) {
+        in = input;
+    }
+
+    /** Returns the next chunk, or null at the end of the stream. */
+    byte[] next() throws IOException {
+        fill();
+        if (start == end) {
+            return null;
+        }
+        int length = cut(buffer, start, end - start);
+        byte[] chunk = Arrays.copyOfRange(buffer, start, start + length);
+        start += length;
+        return chunk;
+    }
+
+    /** Moves the unread bytes to the front and reads until full. */
+    private void fill() throws IOException {
+        System.arraycopy(buffer, start, buffer, 0, end - start);
+        end -= start;
+        start = 0;
+        while (end < buffer.length && !eof) {
+            int n = in.read(buffer, end, buffer.length - end);
+            if (n < 0) {
+                eof = true;
+            } else {
+                end += n;
+            }
+        }
+    }
+
+    /**
+     * Returns the length of the chunk that starts at OFFSET in DATA, of
+     * which LENGTH bytes are available.
+     */
+    static int cut(byte[] data, int offset, int length) {
+        if (length <= MIN_SIZE) {
+            return length;
+        }
+        int max = Math.min(length, MAX_SIZE);
+        int normal = Math.min(max, AVG_SIZE);
+        long hash = 0;
+        // No chunk ends within the minimum size, so it is not hashed.
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < max; i += 1) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,87 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Thin client of the Gitlet daemon. Usage: java gitlet.Client ARGS runs
+ * the command java gitlet.Main ARGS would, through the daemon of the
+ * repository in the current directory if one is running, and in this
+ * process otherwise. It loads none of the repository classes unless it has
+ * to run the command itself.
+ */
+public class Client {
+    // Same file as Daemon.SOCKET, without loading the repository classes.
+    private static final Path SOCKET =
+        Paths.get(System.getProperty("user.dir"), ".gitlet", "daemon.sock");
+
+    private Client() {
+    }
+
+    public static void main(String[] args) {
+        if (!send(args, System.in, System.out)) {
+            Main.main(args);
+        }
+    }
+
+    /** Returns true if a daemon is serving the current repository. */
+    static boolean isRunning() {
+        try (SocketChannel channel = connect()) {
+            return channel != null;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Connects to the daemon, or returns null if none is running. */
+    private static SocketChannel connect() {
+        try {
+            return SocketChannel.open(UnixDomainSocketAddress.of(SOCKET));
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /**
+     * Sends the command ARGS to the daemon, with IN as its standard input
+     * if it reads one, and copies its output to OUT. Returns false if no
+     * daemon is running.
+     */
+    static boolean send(String[] args, InputStream in, OutputStream out) {
+        SocketChannel channel = connect();
+        if (channel == null) {
+            return false;
+        }
+        try (channel) {
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            field(request, Integer.toString(args.length));
+            for (String arg : args) {
+                field(request, arg);
+            }
+            OutputStream toDaemon = Channels.newOutputStream(channel);
+            toDaemon.write(request.toByteArray());
+            if (args.length == 1 && args[0].equals("fast-import")) {
+                in.transferTo(toDaemon);
+            }
+            channel.shutdownOutput();
+            Channels.newInputStream(channel).transferTo(out);
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return true;
+    }
+
+    private static void field(ByteArrayOutputStream request, String value) {
+        request.writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        request.write(0);
+    }
+}
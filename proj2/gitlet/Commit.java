@@ -2,65 +2,138 @@ package gitlet;
 
 import static gitlet.Utils.*;
 import java.io.File;
-import java.io.Serializable;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
 /**
  * Represents a Gitlet commit object.
  * @author Yaohui Wu
  */
-public class Commit implements Serializable {
+public class Commit {
     public static final File COMMITS = join(Repository.GITLET, "commits");
+    private static final ObjectStore STORE
+        = new ObjectStore(COMMITS, "commits");
+    // Commits loaded during this command, most recently used last.
+    private static final ObjectCache<Commit> CACHE
+        = new ObjectCache<>(1024);
+    private static final DateTimeFormatter FORMATTER
+        = DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy Z")
+        .withZone(ZoneId.systemDefault());
     // Message of the commit.
     private String message;
     // Timestamp of the commit.
     private String timestamp;
+    // Seconds since the epoch at which the commit was made.
+    private long time;
+    // Number of commits on the longest path to the initial commit.
+    private int generation;
     // SHA-1 ID of the commit.
     private String id;
     // SHA-1 ID of the first parent reference.
     private String firstParent;
     // SHA-1 ID of the second parent reference for merges.
     private String secondParent;
-    // Maps the file name to the blob ID.
+    // ID of the tree mapping each file name to its blob ID.
+    private String tree;
+    // Files of the tree, read the first time they are needed.
     private Map<String, String> blobs;
 
     public Commit() {
-        message = "initial commit";
-        timestamp = timestamp(Instant.EPOCH);
-        firstParent = null;
-        secondParent = null;
-        blobs = new TreeMap<>();
-        id = hash();
+        this("initial commit", Instant.EPOCH, null, null, 1,
+            Tree.write(new TreeMap<>()));
     }
 
     public Commit(String msg, String firstParentId) {
-        this();
-        message = msg;
-        timestamp = timestamp(Instant.now());
-        firstParent = firstParentId;
-        blobs = Commit.load(firstParentId).getBlobs();
-        id = hash();
+        this(msg, firstParentId, null);
     }
 
     public Commit(String msg, String firstParentId, String secondParentId) {
-        this(msg, firstParentId);
+        // The first parent's tree is shared until the commit changes files.
+        this(msg, Instant.now(), firstParentId, secondParentId,
+            generation(firstParentId, secondParentId),
+            Commit.load(firstParentId).tree);
+    }
+
+    /** Makes the commit with the given fields, hashing it once. */
+    private Commit(
+        String msg,
+        Instant when,
+        String firstParentId,
+        String secondParentId,
+        int generationNumber,
+        String treeId) {
+        message = msg;
+        timestamp = timestamp(when);
+        time = when.getEpochSecond();
+        generation = generationNumber;
+        firstParent = firstParentId;
         secondParent = secondParentId;
+        tree = treeId;
         id = hash();
     }
 
+    /**
+     * Returns the generation number of a commit with the given parents,
+     * one more than that of the later of them.
+     */
+    private static int generation(String firstParentId, String secondParentId) {
+        int generation = Commit.load(firstParentId).generation + 1;
+        if (secondParentId != null) {
+            generation = Math.max(
+                generation, Commit.load(secondParentId).generation + 1);
+        }
+        return generation;
+    }
+
+    /** Reads the commit with the given ID from its encoding. */
+    private Commit(byte[] encoded, String commitId) {
+        Encoding.Input in = new Encoding.Input(encoded, Encoding.COMMIT);
+        message = in.readString();
+        timestamp = in.readString();
+        time = in.readLong();
+        generation = in.readInt();
+        firstParent = in.readString();
+        secondParent = in.readString();
+        tree = in.readString();
+        id = commitId;
+    }
+
+    /**
+     * Returns the commit with the given ID from its binary encoding, which
+     * hashes to that ID.
+     */
+    static Commit decode(byte[] encoded, String id) {
+        return new Commit(encoded, id);
+    }
+
     private String timestamp(Instant time) {
-        DateTimeFormatter formatter
-            = DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy Z")
-            .withZone(ZoneId.systemDefault());
-        return formatter.format(time);
+        return FORMATTER.format(time);
     }
 
     private String hash() {
-        return sha1(serialize(this));
+        return sha1(encode());
+    }
+
+    /** Returns the binary encoding of every field but the ID. */
+    byte[] encode() {
+        return new Encoding.Output(Encoding.COMMIT)
+            .writeString(message)
+            .writeString(timestamp)
+            .writeLong(time)
+            .writeInt(generation)
+            .writeString(firstParent)
+            .writeString(secondParent)
+            .writeString(tree)
+            .toByteArray();
     }
 
     public String getMessage() {
@@ -78,55 +151,154 @@ public class Commit implements Serializable {
     public String getSecondParent() {
         return secondParent;
     }
+
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
     
+    public String getTree() {
+        return tree;
+    }
+
+    /** Returns the map of every file name to its blob ID. */
     public Map<String, String> getBlobs() {
+        if (blobs == null) {
+            blobs = Collections.unmodifiableMap(Tree.read(tree));
+        }
         return blobs;
     }
 
+    /** Returns the blob ID of the file, or null if it is not tracked. */
     public String getBlobId(String file) {
-        return blobs.get(file);
+        if (blobs != null) {
+            return blobs.get(file);
+        }
+        return Tree.get(tree, file);
+    }
+
+    /**
+     * Adds the files in ADDITION to the commit and removes the files in
+     * REMOVAL, rewriting only the parts of the tree that change.
+     */
+    public void update(Map<String, String> addition, Set<String> removal) {
+        String updated = Tree.update(tree, addition, removal);
+        if (!updated.equals(tree)) {
+            tree = updated;
+            blobs = null;
+            id = hash();
+        }
     }
 
     public void save() {
-        writeObject(join(COMMITS, id), this);
+        STORE.write(id, encode());
+        // The next commit loads this one as its parent.
+        CACHE.put(id, this);
+    }
+
+    /**
+     * Returns the IDs of the commits whose ID starts with the given prefix,
+     * at most two of them. A prefix that names one commit yields one ID,
+     * and an ambiguous prefix yields two.
+     */
+    public static List<String> resolve(String prefix) {
+        return STORE.findPrefix(prefix, 2);
     }
 
     public static Commit load(String id) {
         if (id.length() < UID_LENGTH) {
-            id = findCommit(id);
+            List<String> ids = resolve(id);
+            if (ids.size() != 1) {
+                return null;
+            }
+            id = ids.get(0);
         }
-        File file = join(COMMITS, id);
-        if (!file.exists()) {
+        Commit commit = CACHE.get(id);
+        if (commit != null) {
+            return commit;
+        }
+        byte[] contents = STORE.read(id);
+        if (contents == null) {
             return null;
         }
-        return readObject(file, Commit.class);
+        commit = decode(contents, id);
+        CACHE.put(id, commit);
+        return commit;
     }
 
-    private static String findCommit(String id) {
-        for (String file : COMMITS.list()) {
-            if (file.startsWith(id)) {
-                return file;
-            }
-        }
-        return null;
+    /** Returns the number of loads answered by the commit cache. */
+    public static long cacheHits() {
+        return CACHE.getHits();
     }
 
-    @Override
-    public String toString() {
-        String headerString = "===\n";
-        String idString = "commit " + id + "\n";
-        String mergeString = "";
+    /** Returns the number of loads that had to read a commit from disk. */
+    public static long cacheMisses() {
+        return CACHE.getMisses();
+    }
+
+    /** Returns the IDs of all the commits in sorted order. */
+    public static List<String> ids() {
+        return STORE.ids();
+    }
+
+    /**
+     * Returns the IDs of the commits not in REACHED that were stored at or
+     * after CUTOFF.
+     */
+    public static List<String> recent(Set<String> reached, long cutoff) {
+        return STORE.recent(reached, cutoff);
+    }
+
+    /**
+     * Deletes the commits not in KEEP that were stored before CUTOFF.
+     * Returns the number of bytes freed.
+     */
+    public static long prune(Set<String> keep, long cutoff) {
+        return STORE.prune(keep, cutoff);
+    }
+
+    /** Moves the loose commits into the packfile. */
+    public static int repack() {
+        return STORE.repack();
+    }
+
+    /**
+     * Writes the log entry of the commit to OUT, with the separator, ID,
+     * parents of a merge, date, and message, each on their own line.
+     */
+    public void writeLog(Writer out) throws IOException {
+        out.write("===\ncommit ");
+        out.write(id);
+        out.write('\n');
         if (secondParent != null) {
-            mergeString = "Merge: " + mergeId(firstParent) + " "
-                + mergeId(secondParent) + "\n";
+            out.write("Merge: ");
+            out.write(firstParent, 0, 7);
+            out.write(' ');
+            out.write(secondParent, 0, 7);
+            out.write('\n');
         }
-        String timestampString = "Date: " + timestamp + "\n";
-        String messageString = message + "\n";
-        return headerString + idString + mergeString + timestampString
-            + messageString;
+        out.write("Date: ");
+        out.write(timestamp);
+        out.write('\n');
+        out.write(message);
+        out.write('\n');
     }
 
-    private String mergeId(String uid) {
-        return uid.substring(0, 7);
+    @Override
+    public String toString() {
+        StringWriter out = new StringWriter();
+        try {
+            writeLog(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return out.toString();
     }
 }
@@ -0,0 +1,263 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Represents the commit-graph file of a Gitlet repository. It stores the
+ * parents, generation number, and time of each commit in fixed-width
+ * records, so history walks do not deserialize whole commits. Commits made
+ * after the file was written are read from the object store instead.
+ *
+ * The file holds a header, a fanout table counting the commits whose ID
+ * starts with each byte or less, the sorted binary IDs, and then one
+ * record per commit with the positions of its parents in the sorted IDs.
+ */
+class CommitGraph implements MergeBase.History {
+    public static final File GRAPH = join(Repository.GITLET, "commit-graph");
+    private static final int MAGIC = 0x43475048; // "CGPH"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int FANOUT_SIZE = 256 * 4;
+    private static final int ID_SIZE = 20;
+    // First parent, second parent, generation, and time.
+    private static final int RECORD_SIZE = 4 + 4 + 4 + 8;
+    // Position of a missing parent.
+    private static final int NONE = -1;
+
+    // The graph file loaded by this command, if any.
+    private static CommitGraph graph;
+    // Stamp of the graph file when it was loaded.
+    private static List<Object> stamp;
+
+    private final MappedByteBuffer buffer;
+    private final int count;
+
+    private CommitGraph(MappedByteBuffer graphBuffer) {
+        buffer = graphBuffer;
+        count = buffer == null ? 0 : buffer.getInt(8);
+    }
+
+    /** Returns the commit graph, loading the file the first time. */
+    static synchronized CommitGraph get() {
+        if (graph == null) {
+            stamp = stamp(GRAPH);
+            graph = new CommitGraph(map());
+        }
+        return graph;
+    }
+
+    /**
+     * Forgets the graph loaded before if another process has replaced the
+     * file since.
+     */
+    static synchronized void refresh() {
+        if (graph != null && !Objects.equals(stamp, stamp(GRAPH))) {
+            graph = null;
+        }
+    }
+
+    private static MappedByteBuffer map() {
+        if (!GRAPH.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(GRAPH.toPath())) {
+            MappedByteBuffer buffer = channel.map(
+                FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                // An unreadable graph is ignored, as it can be rebuilt.
+                return null;
+            }
+            return buffer;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Returns the IDs of the parents of the given commit. */
+    @Override
+    public String[] parents(String id) {
+        int i = find(id);
+        if (i < 0) {
+            Commit commit = Commit.load(id);
+            return parents(commit.getfirstParent(), commit.getSecondParent());
+        }
+        int first = buffer.getInt(record(i));
+        int second = buffer.getInt(record(i) + 4);
+        return parents(first == NONE ? null : id(first),
+            second == NONE ? null : id(second));
+    }
+
+    private static String[] parents(String first, String second) {
+        if (first == null) {
+            return new String[0];
+        } else if (second == null) {
+            return new String[] {first};
+        }
+        return new String[] {first, second};
+    }
+
+    /** Returns the generation number of the given commit. */
+    @Override
+    public int generation(String id) {
+        int i = find(id);
+        if (i < 0) {
+            return Commit.load(id).getGeneration();
+        }
+        return buffer.getInt(record(i) + 8);
+    }
+
+    /** Returns the time of the given commit in seconds since the epoch. */
+    @Override
+    public long time(String id) {
+        int i = find(id);
+        if (i < 0) {
+            return Commit.load(id).getTime();
+        }
+        return buffer.getLong(record(i) + 12);
+    }
+
+    /**
+     * Returns true if ANCESTOR is reachable from the commit with the given
+     * ID. Commits with a lower generation number than ANCESTOR cannot reach
+     * it, so the walk never goes below that generation.
+     */
+    @Override
+    public boolean isAncestor(String ancestor, String id) {
+        int floor = generation(ancestor);
+        Deque<String> stack = new ArrayDeque<>();
+        Set<String> visited = new HashSet<>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            String current = stack.pop();
+            if (current.equals(ancestor)) {
+                return true;
+            }
+            if (!visited.add(current) || generation(current) <= floor) {
+                continue;
+            }
+            for (String parent : parents(current)) {
+                stack.push(parent);
+            }
+        }
+        return false;
+    }
+
+    /** Returns the position of the given ID, or -1 if it is absent. */
+    private int find(String id) {
+        if (buffer == null || id.length() != UID_LENGTH) {
+            return -1;
+        }
+        byte[] key = Pack.toBytes(id);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout(first - 1);
+        int hi = fanout(first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int fanout(int b) {
+        return buffer.getInt(HEADER_SIZE + 4 * b);
+    }
+
+    private int compare(int i, byte[] key) {
+        int base = HEADER_SIZE + FANOUT_SIZE + i * ID_SIZE;
+        for (int j = 0; j < ID_SIZE; j += 1) {
+            int cmp = Byte.compareUnsigned(buffer.get(base + j), key[j]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private String id(int i) {
+        byte[] bytes = new byte[ID_SIZE];
+        buffer.get(HEADER_SIZE + FANOUT_SIZE + i * ID_SIZE, bytes);
+        return Pack.toHex(bytes);
+    }
+
+    private int record(int i) {
+        return HEADER_SIZE + FANOUT_SIZE + count * ID_SIZE + i * RECORD_SIZE;
+    }
+
+    /**
+     * Writes the commit-graph file for all the given commit IDs, which must
+     * be sorted. The file is replaced atomically.
+     */
+    static void write(List<String> ids) {
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < ids.size(); i += 1) {
+            positions.put(ids.get(i), i);
+        }
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + FANOUT_SIZE
+            + ids.size() * (ID_SIZE + RECORD_SIZE));
+        out.putInt(MAGIC).putInt(VERSION).putInt(ids.size());
+        int[] fanout = new int[256];
+        for (String id : ids) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        int total = 0;
+        for (int b = 0; b < 256; b += 1) {
+            total += fanout[b];
+            out.putInt(total);
+        }
+        for (String id : ids) {
+            out.put(Pack.toBytes(id));
+        }
+        for (String id : ids) {
+            Commit commit = Commit.load(id);
+            out.putInt(position(positions, commit.getfirstParent()));
+            out.putInt(position(positions, commit.getSecondParent()));
+            out.putInt(commit.getGeneration());
+            out.putLong(commit.getTime());
+        }
+        File temp = new File(GRAPH.getPath() + ".tmp");
+        writeContents(temp, (Object) out.array());
+        try {
+            Files.move(temp.toPath(), GRAPH.toPath(),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        synchronized (CommitGraph.class) {
+            graph = null;
+        }
+    }
+
+    /**
+     * Returns the position of the given parent ID, or NONE if there is no
+     * such parent or it is not among the commits written.
+     */
+    private static int position(Map<String, Integer> positions, String id) {
+        if (id == null) {
+            return NONE;
+        }
+        return positions.getOrDefault(id, NONE);
+    }
+}
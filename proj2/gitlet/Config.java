@@ -0,0 +1,141 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Represents the settings of a Gitlet repository, kept as key=value lines
+ * in the config file. Only known keys can be set, and a key that is not
+ * set has its default value.
+ */
+public class Config {
+    public static final File CONFIG = join(Repository.GITLET, "config");
+    /** Whether new large blobs are split into content-defined chunks. */
+    public static final String CHUNKING = "blob.chunking";
+    /**
+     * Deflater level of stored objects, from 0 for none to 9, or -1 for
+     * the default level.
+     */
+    public static final String COMPRESSION = "core.compression";
+    /**
+     * Whether each command journals and syncs its writes, "full", or only
+     * renames them into place, "relaxed".
+     */
+    public static final String DURABILITY = "core.durability";
+    public static final String FULL = "full";
+    public static final String RELAXED = "relaxed";
+    /**
+     * Percent of lines a deleted and an added file must share for the add
+     * to be taken as a rename, from 0 to 100 for identical files only.
+     */
+    public static final String RENAME_THRESHOLD = "diff.renameThreshold";
+    /**
+     * Seconds an unreachable object is kept before gc deletes it, so the
+     * objects of a command still running are not lost.
+     */
+    public static final String GRACE_PERIOD = "gc.gracePeriod";
+
+    // Maps each known key to its default value.
+    private static final Map<String, String> DEFAULTS = new TreeMap<>();
+    static {
+        DEFAULTS.put(CHUNKING, "false");
+        DEFAULTS.put(COMPRESSION, "-1");
+        DEFAULTS.put(DURABILITY, FULL);
+        DEFAULTS.put(RENAME_THRESHOLD, "50");
+        // Two weeks.
+        DEFAULTS.put(GRACE_PERIOD, "1209600");
+    }
+
+    // Settings read by this command.
+    private static Properties settings;
+    // Stamp of the config file the settings were read from.
+    private static List<Object> stamp;
+
+    /** Returns true if KEY is a setting Gitlet knows. */
+    public static boolean isKnown(String key) {
+        return DEFAULTS.containsKey(key);
+    }
+
+    /** Returns the value of the given setting. */
+    public static String get(String key) {
+        return load().getProperty(key, DEFAULTS.get(key));
+    }
+
+    public static boolean getBoolean(String key) {
+        return Boolean.parseBoolean(get(key));
+    }
+
+    public static int getInt(String key) {
+        return Integer.parseInt(get(key));
+    }
+
+    /** Returns true if VALUE is a valid value of the given setting. */
+    public static boolean isValid(String key, String value) {
+        String defaultValue = DEFAULTS.get(key);
+        if (defaultValue.equals("true") || defaultValue.equals("false")) {
+            return value.equals("true") || value.equals("false");
+        }
+        if (key.equals(DURABILITY)) {
+            return value.equals(FULL) || value.equals(RELAXED);
+        }
+        try {
+            int n = Integer.parseInt(value);
+            if (key.equals(RENAME_THRESHOLD)) {
+                return n >= 0 && n <= 100;
+            }
+            if (key.equals(GRACE_PERIOD)) {
+                return n >= 0;
+            }
+            return !key.equals(COMPRESSION) || n >= -1 && n <= 9;
+        } catch (NumberFormatException excp) {
+            return false;
+        }
+    }
+
+    /** Sets the given setting and saves the config file. */
+    public static void set(String key, String value) {
+        Properties properties = load();
+        properties.setProperty(key, value);
+        StringWriter out = new StringWriter();
+        try {
+            properties.store(out, null);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        writeContents(CONFIG, out.toString());
+    }
+
+    /**
+     * Forgets the settings read before if another process has changed the
+     * config file since.
+     */
+    static synchronized void refresh() {
+        if (settings != null && !Objects.equals(stamp, stamp(CONFIG))) {
+            settings = null;
+        }
+    }
+
+    private static synchronized Properties load() {
+        if (settings == null) {
+            stamp = stamp(CONFIG);
+            settings = new Properties();
+            if (CONFIG.isFile()) {
+                try {
+                    settings.load(
+                        new StringReader(readContentsAsString(CONFIG)));
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+        return settings;
+    }
+}
@@ -0,0 +1,173 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves Gitlet commands over a Unix domain socket in the repository, so
+ * running one costs neither starting a JVM nor loading classes, and the
+ * caches of commits, trees, and packs stay warm between commands.
+ *
+ * A request is the number of arguments followed by each argument, each
+ * ended by a zero byte, and then the standard input of the command, which
+ * only fast-import reads. The reply is the output of the command, ended by
+ * closing the connection. Client speaks this, and so can other tools:
+ *
+ *   printf '1\0status\0' | nc -U .gitlet/daemon.sock
+ *
+ * Commands run one at a time, and the branches, HEAD, and staging area are
+ * read again for each. The packs, the config, and the commit graph stay
+ * loaded between commands unless their files have changed since, so other
+ * processes may still change the repository while the daemon runs.
+ */
+class Daemon {
+    public static final File SOCKET = join(Repository.GITLET, "daemon.sock");
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private Daemon() {
+    }
+
+    /** Serves commands until a client asks the daemon to stop. */
+    static void serve() {
+        if (Client.isRunning()) {
+            String error = "A daemon is already running.";
+            Main.exit(error);
+        }
+        // A daemon that did not stop cleanly leaves its socket behind.
+        SOCKET.delete();
+        Main.setServing(true);
+        try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            boolean stopped = false;
+            while (!stopped) {
+                SocketChannel client = server.accept();
+                try (client) {
+                    stopped = handle(client);
+                } catch (IOException excp) {
+                    // A client that hangs up only loses its own command.
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /** Asks the running daemon to stop. */
+    static void stop() {
+        String[] args = {"daemon", "stop"};
+        if (!Client.send(args, System.in, System.out)) {
+            String error = "No daemon is running.";
+            Main.exit(error);
+        }
+    }
+
+    /**
+     * Runs the command a client sent with its output going back to it.
+     * Returns true if the client asked the daemon to stop.
+     */
+    private static boolean handle(SocketChannel client) throws IOException {
+        InputStream in = new BufferedInputStream(
+            Channels.newInputStream(client), BUFFER_SIZE);
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+            Channels.newOutputStream(client), BUFFER_SIZE));
+        String[] args = readArgs(in);
+        if (args == null) {
+            return false;
+        }
+        boolean stop = false;
+        PrintStream stdout = System.out;
+        InputStream stdin = System.in;
+        System.setOut(out);
+        System.setIn(in);
+        try {
+            if (args.length > 0 && args[0].equals("daemon")) {
+                stop = args.length == 2 && args[1].equals("stop");
+                if (stop) {
+                    System.out.println("Daemon stopped.");
+                } else {
+                    System.out.println("A daemon is already running.");
+                }
+            } else {
+                run(args);
+            }
+        } finally {
+            System.setOut(stdout);
+            System.setIn(stdin);
+            out.flush();
+        }
+        return stop;
+    }
+
+    /**
+     * Runs the command ARGS as Main would, from a clean state and with the
+     * caches of files another process changed dropped.
+     */
+    private static void run(String[] args) {
+        Session.reset();
+        Journal.reset();
+        ObjectStore.resetBatch();
+        ObjectStore.refresh();
+        Config.refresh();
+        CommitGraph.refresh();
+        try {
+            Main.main(args);
+        } catch (Main.Exit excp) {
+            // The command printed its error message and stopped.
+        } catch (RuntimeException excp) {
+            // The client gets the error, and the daemon serves the next one.
+            String message = excp.getMessage();
+            System.out.println("Error: "
+                + (message == null ? excp.toString() : message));
+        }
+    }
+
+    /**
+     * Reads the arguments of a request, or returns null if the request is
+     * malformed.
+     */
+    private static String[] readArgs(InputStream in) throws IOException {
+        String count = readField(in);
+        String[] args;
+        try {
+            args = new String[Integer.parseInt(count)];
+        } catch (NumberFormatException | NegativeArraySizeException excp) {
+            return null;
+        }
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = readField(in);
+            if (args[i] == null) {
+                return null;
+            }
+        }
+        return args;
+    }
+
+    /** Reads the bytes before the next zero byte, or null at the end. */
+    private static String readField(InputStream in) throws IOException {
+        ByteArrayOutputStream field = new ByteArrayOutputStream();
+        int b = in.read();
+        while (b > 0) {
+            field.write(b);
+            b = in.read();
+        }
+        if (b < 0) {
+            return null;
+        }
+        return field.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,176 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Binary deltas between two versions of a file. A delta is a sequence of
+ * instructions that either copy a range of the base version or insert
+ * literal bytes, preceded by the lengths of the base and target versions.
+ */
+class Delta {
+    private static final int INSERT = 0;
+    private static final int COPY = 1;
+    // Length of the blocks of the base indexed for matching.
+    private static final int BLOCK = 16;
+    // Multiplier of the rolling hash over a block.
+    private static final int PRIME = 31;
+
+    /**
+     * Returns a delta that turns BASE into TARGET, or null if the delta
+     * would not be smaller than LIMIT bytes.
+     */
+    static byte[] create(byte[] base, byte[] target, int limit) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        int[] table = index(base);
+        int mask = table.length - 1;
+        // Weight of the byte that leaves the rolling window.
+        int outWeight = 1;
+        for (int i = 0; i < BLOCK; i += 1) {
+            outWeight *= PRIME;
+        }
+        int literal = 0; // Start of the pending literal bytes.
+        int pos = 0;
+        int hash = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (pos + BLOCK <= target.length) {
+            int candidate = table[hash & mask] - 1;
+            int length = 0;
+            if (candidate >= 0) {
+                length = matchLength(base, candidate, target, pos);
+            }
+            if (length >= BLOCK) {
+                // Extends the match backwards into the pending literal.
+                while (pos > literal && candidate > 0
+                    && base[candidate - 1] == target[pos - 1]) {
+                    candidate -= 1;
+                    pos -= 1;
+                    length += 1;
+                }
+                insert(out, target, literal, pos);
+                out.write(COPY);
+                writeVarint(out, candidate);
+                writeVarint(out, length);
+                pos += length;
+                literal = pos;
+                if (pos + BLOCK <= target.length) {
+                    hash = hash(target, pos);
+                }
+            } else {
+                if (pos + BLOCK < target.length) {
+                    hash = hash * PRIME - target[pos] * outWeight
+                        + target[pos + BLOCK];
+                }
+                pos += 1;
+            }
+            if (out.size() >= limit) {
+                return null;
+            }
+        }
+        insert(out, target, literal, target.length);
+        if (out.size() >= limit) {
+            return null;
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        int baseLength = (int) readVarint(delta, pos);
+        if (baseLength != base.length) {
+            throw Utils.error("Delta does not match its base.");
+        }
+        byte[] target = new byte[(int) readVarint(delta, pos)];
+        int written = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]];
+            pos[0] += 1;
+            int length;
+            if (op == COPY) {
+                int offset = (int) readVarint(delta, pos);
+                length = (int) readVarint(delta, pos);
+                System.arraycopy(base, offset, target, written, length);
+            } else {
+                length = (int) readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], target, written, length);
+                pos[0] += length;
+            }
+            written += length;
+        }
+        return target;
+    }
+
+    /**
+     * Returns a hash table of the aligned blocks of BASE. Each slot holds
+     * one more than the offset of a block with that hash, or 0 if empty.
+     */
+    private static int[] index(byte[] base) {
+        int blocks = base.length / BLOCK;
+        int size = Integer.highestOneBit(Math.max(blocks, 1) * 2 - 1) << 1;
+        int[] table = new int[size];
+        for (int i = blocks - 1; i >= 0; i -= 1) {
+            // Earlier blocks win, which favours long forward matches.
+            table[hash(base, i * BLOCK) & (size - 1)] = i * BLOCK + 1;
+        }
+        return table;
+    }
+
+    private static int hash(byte[] bytes, int start) {
+        int hash = 0;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            hash = hash * PRIME + bytes[i];
+        }
+        return hash;
+    }
+
+    private static int matchLength(
+        byte[] base,
+        int baseStart,
+        byte[] target,
+        int targetStart) {
+        int length = 0;
+        while (baseStart + length < base.length
+            && targetStart + length < target.length
+            && base[baseStart + length] == target[targetStart + length]) {
+            length += 1;
+        }
+        return length;
+    }
+
+    /** Writes an insert instruction for TARGET[START..END). */
+    private static void insert(
+        ByteArrayOutputStream out,
+        byte[] target,
+        int start,
+        int end) {
+        if (start < end) {
+            out.write(INSERT);
+            writeVarint(out, end - start);
+            out.write(target, start, end - start);
+        }
+    }
+
+    /** Writes VALUE in seven-bit groups, least significant first. */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Reads a varint from BYTES at POS[0], advancing POS[0] past it. */
+    static long readVarint(byte[] bytes, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[pos[0]];
+            pos[0] += 1;
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
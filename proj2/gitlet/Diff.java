@@ -0,0 +1,332 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the lines two files differ in with the linear space refinement of
+ * Myers' O(ND) algorithm, where D is the number of lines to delete and
+ * insert. Lines are compared by hash first and by their bytes only when
+ * the hashes match, and the common prefix and suffix are matched before
+ * the search starts.
+ */
+class Diff {
+    private Diff() {
+    }
+
+    /**
+     * The lines of a file, as positions in a buffer that may be mapped from
+     * the stored blob. Each line keeps its newline, and the last line may
+     * have none.
+     */
+    static class Lines {
+        private static final Lines EMPTY = new Lines(ByteBuffer.allocate(0));
+        private static final int COPY_SIZE = 1 << 13;
+
+        private final ByteBuffer buffer;
+        // Position of each line in the buffer, and the end of the last.
+        private final int[] starts;
+        private final int[] hashes;
+
+        Lines(ByteBuffer contents) {
+            buffer = contents;
+            int limit = contents.limit();
+            int count = 0;
+            for (int i = contents.position(); i < limit; i += 1) {
+                if (contents.get(i) == '\n') {
+                    count += 1;
+                }
+            }
+            int position = contents.position();
+            if (limit > position && contents.get(limit - 1) != '\n') {
+                count += 1;
+            }
+            starts = new int[count + 1];
+            hashes = new int[count];
+            int line = 0;
+            int hash = 0;
+            starts[0] = position;
+            for (int i = position; i < limit; i += 1) {
+                byte b = contents.get(i);
+                hash = 31 * hash + b;
+                if (b == '\n' || i == limit - 1) {
+                    hashes[line] = hash;
+                    line += 1;
+                    starts[line] = i + 1;
+                    hash = 0;
+                }
+            }
+        }
+
+        /** Returns the lines of the blob with the given ID. */
+        static Lines of(String blobId) {
+            return new Lines(Blob.readBuffer(blobId));
+        }
+
+        /** Returns the lines of the working file FILE, mapped into memory. */
+        static Lines of(File file) {
+            try (FileChannel channel = FileChannel.open(file.toPath())) {
+                return new Lines(channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Returns the lines of an empty file. */
+        static Lines empty() {
+            return EMPTY;
+        }
+
+        int size() {
+            return hashes.length;
+        }
+
+        /** Returns the hash of line I. */
+        int hash(int i) {
+            return hashes[i];
+        }
+
+        /** Returns true if line I ends with a newline. */
+        boolean hasNewline(int i) {
+            return buffer.get(starts[i + 1] - 1) == '\n';
+        }
+
+        /** Returns true if line I equals line J of OTHER. */
+        boolean equals(int i, Lines other, int j) {
+            if (hashes[i] != other.hashes[j]) {
+                return false;
+            }
+            int length = starts[i + 1] - starts[i];
+            if (length != other.starts[j + 1] - other.starts[j]) {
+                return false;
+            }
+            return buffer.slice(starts[i], length).equals(
+                other.buffer.slice(other.starts[j], length));
+        }
+
+        /**
+         * Returns true if lines [FROM, TO) equal lines [OTHERFROM, OTHERTO)
+         * of OTHER.
+         */
+        boolean equals(
+            int from,
+            int to,
+            Lines other,
+            int otherFrom,
+            int otherTo) {
+            if (to - from != otherTo - otherFrom) {
+                return false;
+            }
+            for (int i = 0; i < to - from; i += 1) {
+                if (!equals(from + i, other, otherFrom + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Writes lines [FROM, TO) to OUT. */
+        void write(int from, int to, OutputStream out) throws IOException {
+            int position = starts[from];
+            int end = starts[to];
+            if (buffer.hasArray()) {
+                out.write(buffer.array(), buffer.arrayOffset() + position,
+                    end - position);
+                return;
+            }
+            byte[] copy = new byte[Math.min(COPY_SIZE, end - position)];
+            while (position < end) {
+                int n = Math.min(copy.length, end - position);
+                buffer.get(position, copy, 0, n);
+                out.write(copy, 0, n);
+                position += n;
+            }
+        }
+    }
+
+    /**
+     * A change that replaces lines [start1, end1) of the first file with
+     * lines [start2, end2) of the second.
+     */
+    static class Hunk {
+        final int start1;
+        final int end1;
+        final int start2;
+        final int end2;
+
+        Hunk(int start1, int end1, int start2, int end2) {
+            this.start1 = start1;
+            this.end1 = end1;
+            this.start2 = start2;
+            this.end2 = end2;
+        }
+    }
+
+    /** Returns the hunks that turn A into B, in order. */
+    static List<Hunk> diff(Lines a, Lines b) {
+        int n = a.size();
+        int m = b.size();
+        int prefix = 0;
+        while (prefix < n && prefix < m && a.equals(prefix, b, prefix)) {
+            prefix += 1;
+        }
+        int suffix = 0;
+        while (suffix < n - prefix && suffix < m - prefix
+            && a.equals(n - 1 - suffix, b, m - 1 - suffix)) {
+            suffix += 1;
+        }
+        boolean[] deleted = new boolean[n];
+        boolean[] inserted = new boolean[m];
+        int max = (n - prefix - suffix + m - prefix - suffix + 1) / 2;
+        search(a, prefix, n - suffix, b, prefix, m - suffix, deleted,
+            inserted, new int[2 * max + 4], new int[2 * max + 4]);
+        List<Hunk> hunks = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            if (i < n && j < m && !deleted[i] && !inserted[j]) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int start1 = i;
+            int start2 = j;
+            while (i < n && deleted[i]) {
+                i += 1;
+            }
+            while (j < m && inserted[j]) {
+                j += 1;
+            }
+            hunks.add(new Hunk(start1, i, start2, j));
+        }
+        return hunks;
+    }
+
+    /**
+     * Marks the lines to delete from lines [ASTART, AEND) of A and to
+     * insert from lines [BSTART, BEND) of B in a shortest edit script.
+     * The middle snake of the script, the run of matching lines its D / 2th
+     * edit reaches, is found by searching from both ends at once, and the
+     * lines before and after it are searched in turn, so the search needs
+     * only the two arrays of furthest reaching paths, FORWARD and BACKWARD.
+     */
+    private static void search(
+        Lines a,
+        int aStart,
+        int aEnd,
+        Lines b,
+        int bStart,
+        int bEnd,
+        boolean[] deleted,
+        boolean[] inserted,
+        int[] forward,
+        int[] backward) {
+        while (aStart < aEnd && bStart < bEnd
+            && a.equals(aStart, b, bStart)) {
+            aStart += 1;
+            bStart += 1;
+        }
+        while (aStart < aEnd && bStart < bEnd
+            && a.equals(aEnd - 1, b, bEnd - 1)) {
+            aEnd -= 1;
+            bEnd -= 1;
+        }
+        if (aStart == aEnd) {
+            Arrays.fill(inserted, bStart, bEnd, true);
+            return;
+        }
+        if (bStart == bEnd) {
+            Arrays.fill(deleted, aStart, aEnd, true);
+            return;
+        }
+        int[] snake = middleSnake(a, aStart, aEnd, b, bStart, bEnd, forward,
+            backward);
+        search(a, aStart, aStart + snake[0], b, bStart, bStart + snake[1],
+            deleted, inserted, forward, backward);
+        search(a, aStart + snake[2], aEnd, b, bStart + snake[3], bEnd,
+            deleted, inserted, forward, backward);
+    }
+
+    /**
+     * Returns the start x, y and end u, v of the middle snake between lines
+     * [ASTART, AEND) of A and [BSTART, BEND) of B, relative to the starts.
+     * Round D extends the furthest reaching path with D edits on every
+     * diagonal k = x - y from the start, and on every diagonal c of the
+     * reversed files from the end, until the paths from both ends overlap.
+     */
+    private static int[] middleSnake(
+        Lines a,
+        int aStart,
+        int aEnd,
+        Lines b,
+        int bStart,
+        int bEnd,
+        int[] forward,
+        int[] backward) {
+        int n = aEnd - aStart;
+        int m = bEnd - bStart;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        // Furthest x on diagonal k is forward[k + zero].
+        int zero = forward.length / 2;
+        forward[zero + 1] = 0;
+        backward[zero + 1] = 0;
+        for (int d = 0; d <= (n + m + 1) / 2; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || k != d
+                    && forward[zero + k - 1] < forward[zero + k + 1]) {
+                    x = forward[zero + k + 1];
+                } else {
+                    x = forward[zero + k - 1] + 1;
+                }
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m
+                    && a.equals(aStart + x, b, bStart + y)) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[zero + k] = x;
+                // Diagonal k from the start is diagonal delta - k from the end.
+                int c = delta - k;
+                if (odd && c >= -(d - 1) && c <= d - 1
+                    && x + backward[zero + c] >= n) {
+                    return new int[] {startX, startY, x, y};
+                }
+            }
+            for (int c = -d; c <= d; c += 2) {
+                int x;
+                if (c == -d || c != d
+                    && backward[zero + c - 1] < backward[zero + c + 1]) {
+                    x = backward[zero + c + 1];
+                } else {
+                    x = backward[zero + c - 1] + 1;
+                }
+                int y = x - c;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m
+                    && a.equals(aEnd - 1 - x, b, bEnd - 1 - y)) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[zero + c] = x;
+                int k = delta - c;
+                if (!odd && k >= -d && k <= d
+                    && forward[zero + k] + x >= n) {
+                    return new int[] {n - x, m - y, n - startX, m - startY};
+                }
+            }
+        }
+        throw new IllegalStateException("No middle snake.");
+    }
+}
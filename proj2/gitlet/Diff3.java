@@ -0,0 +1,126 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Merges the changes two files made to a common base line by line, as
+ * diff3 does. The hunks each side made against the base are grouped where
+ * their base lines overlap or touch. A group changed by one side takes
+ * that side's lines, and a group both sides changed alike takes their
+ * lines once; only the other groups are written between conflict markers.
+ * The merged file is written straight from the buffers of the three files.
+ */
+class Diff3 {
+    private static final byte[] OURS =
+        "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEPARATOR =
+        "=======\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] THEIRS =
+        ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    private Diff3() {
+    }
+
+    /**
+     * Writes the merge of the changes from BASE to OURS and from BASE to
+     * THEIRS to OUT. Returns true if the merge has a conflict.
+     */
+    static boolean merge(
+        Diff.Lines base,
+        Diff.Lines ours,
+        Diff.Lines theirs,
+        OutputStream out) throws IOException {
+        List<Diff.Hunk> a = Diff.diff(base, ours);
+        List<Diff.Hunk> b = Diff.diff(base, theirs);
+        boolean conflict = false;
+        // Lines of each side minus lines of the base before the group.
+        int shiftA = 0;
+        int shiftB = 0;
+        // Base lines before this are written.
+        int written = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.size() || j < b.size()) {
+            int firstA = i;
+            int firstB = j;
+            int start;
+            int end;
+            if (j == b.size() || i < a.size()
+                && a.get(i).start1 <= b.get(j).start1) {
+                start = a.get(i).start1;
+                end = a.get(i).end1;
+                i += 1;
+            } else {
+                start = b.get(j).start1;
+                end = b.get(j).end1;
+                j += 1;
+            }
+            boolean grew = true;
+            while (grew) {
+                grew = false;
+                while (i < a.size() && a.get(i).start1 <= end) {
+                    end = Math.max(end, a.get(i).end1);
+                    i += 1;
+                    grew = true;
+                }
+                while (j < b.size() && b.get(j).start1 <= end) {
+                    end = Math.max(end, b.get(j).end1);
+                    j += 1;
+                    grew = true;
+                }
+            }
+            base.write(written, start, out);
+            written = end;
+            int startA = start + shiftA;
+            shiftA += shift(a, firstA, i);
+            int endA = end + shiftA;
+            int startB = start + shiftB;
+            shiftB += shift(b, firstB, j);
+            int endB = end + shiftB;
+            if (j == firstB || i > firstA
+                && ours.equals(startA, endA, theirs, startB, endB)) {
+                ours.write(startA, endA, out);
+            } else if (i == firstA) {
+                theirs.write(startB, endB, out);
+            } else {
+                out.write(OURS);
+                ours.write(startA, endA, out);
+                out.write(SEPARATOR);
+                theirs.write(startB, endB, out);
+                out.write(THEIRS);
+                conflict = true;
+            }
+        }
+        base.write(written, base.size(), out);
+        return conflict;
+    }
+
+    /**
+     * Returns the number of lines hunks [FROM, TO) of HUNKS add minus the
+     * number they remove.
+     */
+    private static int shift(List<Diff.Hunk> hunks, int from, int to) {
+        int shift = 0;
+        for (int h = from; h < to; h += 1) {
+            Diff.Hunk hunk = hunks.get(h);
+            shift += (hunk.end2 - hunk.start2) - (hunk.end1 - hunk.start1);
+        }
+        return shift;
+    }
+
+    /**
+     * Writes the whole of OURS and THEIRS between conflict markers to OUT,
+     * for a file one side deleted and the other changed.
+     */
+    static void conflict(Diff.Lines ours, Diff.Lines theirs, OutputStream out)
+        throws IOException {
+        out.write(OURS);
+        ours.write(0, ours.size(), out);
+        out.write(SEPARATOR);
+        theirs.write(0, theirs.size(), out);
+        out.write(THEIRS);
+    }
+}
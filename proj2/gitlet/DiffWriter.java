@@ -0,0 +1,159 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes the changes between versions of files to standard output as a
+ * unified diff, with three lines of context around each change. Lines are
+ * copied from their buffers, which may be mapped from the stored blobs or
+ * the working files, straight into one output buffer.
+ */
+class DiffWriter implements AutoCloseable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int CONTEXT = 3;
+    private static final String DEV_NULL = "/dev/null";
+
+    private final OutputStream out;
+
+    DiffWriter() {
+        out = new BufferedOutputStream(System.out, BUFFER_SIZE);
+    }
+
+    /**
+     * Writes the changes to FILE from the version with blob ID FIRST to
+     * the version SECOND. A version is null if the file is absent.
+     */
+    void write(String file, String first, String second) {
+        Diff.Lines a = first == null
+            ? Diff.Lines.empty() : Diff.Lines.of(first);
+        Diff.Lines b = second == null
+            ? Diff.Lines.empty() : Diff.Lines.of(second);
+        write(file, a, b, first != null, second != null);
+    }
+
+    /**
+     * Writes the changes to FILE from lines A to lines B. Either version of
+     * the file is absent if its flag is false.
+     */
+    void write(
+        String file,
+        Diff.Lines a,
+        Diff.Lines b,
+        boolean hasFirst,
+        boolean hasSecond) {
+        try {
+            print("diff --git a/" + file + " b/" + file + "\n");
+            print("--- " + (hasFirst ? "a/" + file : DEV_NULL) + "\n");
+            print("+++ " + (hasSecond ? "b/" + file : DEV_NULL) + "\n");
+            writeHunks(a, b, Diff.diff(a, b));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Writes the changes from lines A of the source of RENAME to lines B
+     * of its target, after the similarity of the two.
+     */
+    void write(Renames.Rename rename, Diff.Lines a, Diff.Lines b) {
+        String kind = rename.copy ? "copy" : "rename";
+        try {
+            print("diff --git a/" + rename.source + " b/" + rename.target
+                + "\n");
+            print("similarity index " + rename.similarity + "%\n");
+            print(kind + " from " + rename.source + "\n");
+            print(kind + " to " + rename.target + "\n");
+            List<Diff.Hunk> hunks = Diff.diff(a, b);
+            if (!hunks.isEmpty()) {
+                print("--- a/" + rename.source + "\n");
+                print("+++ b/" + rename.target + "\n");
+                writeHunks(a, b, hunks);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes HUNKS, grouping the ones whose contexts touch. */
+    private void writeHunks(
+        Diff.Lines a,
+        Diff.Lines b,
+        List<Diff.Hunk> hunks) throws IOException {
+        int i = 0;
+        while (i < hunks.size()) {
+            int j = i;
+            while (j + 1 < hunks.size() && hunks.get(j + 1).start1
+                - hunks.get(j).end1 <= 2 * CONTEXT) {
+                j += 1;
+            }
+            writeHunk(a, b, hunks.subList(i, j + 1));
+            i = j + 1;
+        }
+    }
+
+    /** Writes the changes HUNKS with their context under one header. */
+    private void writeHunk(
+        Diff.Lines a,
+        Diff.Lines b,
+        List<Diff.Hunk> hunks) throws IOException {
+        Diff.Hunk first = hunks.get(0);
+        Diff.Hunk last = hunks.get(hunks.size() - 1);
+        int from1 = Math.max(0, first.start1 - CONTEXT);
+        int to1 = Math.min(a.size(), last.end1 + CONTEXT);
+        int from2 = first.start2 - (first.start1 - from1);
+        int to2 = last.end2 + (to1 - last.end1);
+        print("@@ -" + range(from1, to1) + " +" + range(from2, to2)
+            + " @@\n");
+        int position = from1;
+        for (Diff.Hunk hunk : hunks) {
+            writeLines(' ', a, position, hunk.start1);
+            writeLines('-', a, hunk.start1, hunk.end1);
+            writeLines('+', b, hunk.start2, hunk.end2);
+            position = hunk.end1;
+        }
+        writeLines(' ', a, position, to1);
+    }
+
+    /** Writes lines [FROM, TO) of LINES, each after PREFIX. */
+    private void writeLines(
+        char prefix,
+        Diff.Lines lines,
+        int from,
+        int to) throws IOException {
+        for (int i = from; i < to; i += 1) {
+            out.write(prefix);
+            lines.write(i, i + 1, out);
+            if (!lines.hasNewline(i)) {
+                print("\n\\ No newline at end of file\n");
+            }
+        }
+    }
+
+    /**
+     * Returns the range of lines [FROM, TO) as a hunk header shows it: the
+     * first line counting from one, or the line before an empty range, and
+     * the number of lines unless it is one.
+     */
+    private static String range(int from, int to) {
+        int count = to - from;
+        int start = count == 0 ? from : from + 1;
+        return count == 1 ? Integer.toString(start) : start + "," + count;
+    }
+
+    private void print(String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void close() {
+        try {
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads and writes the binary encoding of Gitlet metadata. An encoded
+ * object starts with a byte naming its type and a byte giving the format
+ * version, followed by its fields in a fixed order. Numbers are big-endian
+ * and strings are their UTF-8 length followed by their UTF-8 bytes, with a
+ * length of -1 for null. Nothing depends on Java serialization, so object
+ * IDs do not change with the JVM or with the methods of a class.
+ */
+class Encoding {
+    static final byte COMMIT = 'c';
+    static final byte TREE = 't';
+    static final byte STAGE = 's';
+    static final byte VERSION = 1;
+    private static final int NULL = -1;
+
+    private Encoding() {
+    }
+
+    /** Accumulates the encoding of one object. */
+    static class Output {
+        private byte[] bytes = new byte[256];
+        private int size;
+
+        /** Starts the encoding of an object of the given type. */
+        Output(byte type) {
+            writeByte(type);
+            writeByte(VERSION);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes,
+                    Math.max(2 * bytes.length, size + extra));
+            }
+        }
+
+        Output writeByte(int b) {
+            ensure(1);
+            bytes[size++] = (byte) b;
+            return this;
+        }
+
+        Output writeInt(int n) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (n >>> shift);
+            }
+            return this;
+        }
+
+        Output writeLong(long n) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (n >>> shift);
+            }
+            return this;
+        }
+
+        Output writeString(String s) {
+            if (s == null) {
+                return writeInt(NULL);
+            }
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            writeInt(utf8.length);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    /** Reads the fields of one encoded object in order. */
+    static class Input {
+        private final ByteBuffer buffer;
+
+        /**
+         * Starts reading BYTES, which must encode an object of the given
+         * type in the current version.
+         */
+        Input(byte[] bytes, byte type) {
+            buffer = ByteBuffer.wrap(bytes);
+            if (bytes.length < 2 || buffer.get() != type) {
+                throw error("Not an encoded %s.", (char) type);
+            }
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw error("Unsupported encoding version %d.", version);
+            }
+        }
+
+        byte readByte() {
+            return buffer.get();
+        }
+
+        int readInt() {
+            return buffer.getInt();
+        }
+
+        long readLong() {
+            return buffer.getLong();
+        }
+
+        String readString() {
+            int length = buffer.getInt();
+            if (length == NULL) {
+                return null;
+            }
+            String s = new String(buffer.array(), buffer.position(), length,
+                StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return s;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Reads commits and branch moves from a stream and stores them in one
+ * process, in the spirit of `git fast-import`. The stream is a sequence
+ * of commands, each on its own line:
+ *
+ *   commit BRANCH      starts a commit that BRANCH moves to
+ *   mark :N            names the commit :N for later commands
+ *   data LENGTH        the message, the next LENGTH bytes
+ *   from REF           the first parent, by default the head of BRANCH,
+ *                      or the initial commit for a new branch
+ *   merge REF          the second parent
+ *   M LENGTH FILE      the file, with the next LENGTH bytes as contents
+ *   D FILE             removes the file
+ *
+ *   reset BRANCH       creates or moves BRANCH
+ *   from REF           to the given commit
+ *
+ * A commit or reset ends at a blank line or at the next line that is not
+ * one of its own. A REF is a mark, a branch, or a commit ID or unique
+ * prefix of one. Objects go straight into the packfiles in large batches,
+ * without the journal, and the branches move together when the command
+ * finishes. The working directory and the staging area are left alone.
+ */
+class FastImport {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    // Number of the last line read, for error messages.
+    private int lineNumber;
+    // Line read past the end of a command, or null.
+    private String pushedBack;
+    // Maps each mark to the ID of its commit.
+    private final Map<String, String> marks = new HashMap<>();
+    private final MessageIndex messages = MessageIndex.load();
+    private String initialId;
+    private int commits;
+
+    private FastImport(InputStream input) {
+        in = new BufferedInputStream(input, BUFFER_SIZE);
+    }
+
+    /** Imports the stream INPUT. Returns the number of commits imported. */
+    static int run(InputStream input) {
+        Journal.setRelaxed(true);
+        ObjectStore.startBatch();
+        FastImport importer = new FastImport(input);
+        try {
+            importer.readCommands();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ObjectStore.finishBatch();
+        importer.messages.save();
+        return importer.commits;
+    }
+
+    private void readCommands() throws IOException {
+        String line;
+        while ((line = readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            } else if (line.startsWith("commit ")) {
+                readCommit(line.substring("commit ".length()));
+            } else if (line.startsWith("reset ")) {
+                readReset(line.substring("reset ".length()));
+            } else {
+                malformed();
+            }
+        }
+    }
+
+    private void readCommit(String branch) throws IOException {
+        String mark = null;
+        String message = null;
+        String firstParent = null;
+        String secondParent = null;
+        // Contents of the files to add, null for the files to remove.
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        String line;
+        while ((line = readLine()) != null && !line.isEmpty()) {
+            if (line.startsWith("mark :")) {
+                mark = line.substring("mark ".length());
+            } else if (line.startsWith("data ")) {
+                message = new String(
+                    readData(line.substring("data ".length())),
+                    StandardCharsets.UTF_8);
+            } else if (line.startsWith("from ")) {
+                firstParent = resolve(line.substring("from ".length()));
+            } else if (line.startsWith("merge ")) {
+                secondParent = resolve(line.substring("merge ".length()));
+            } else if (line.startsWith("M ")) {
+                int space = line.indexOf(' ', 2);
+                if (space < 0) {
+                    malformed();
+                }
+                String file = line.substring(space + 1);
+                files.remove(file);
+                files.put(file, readData(line.substring(2, space)));
+            } else if (line.startsWith("D ")) {
+                String file = line.substring(2);
+                files.remove(file);
+                files.put(file, null);
+            } else {
+                pushedBack = line;
+                break;
+            }
+        }
+        if (message == null) {
+            malformed();
+        }
+        if (firstParent == null) {
+            firstParent = Session.getId(branch);
+        }
+        if (firstParent == null) {
+            firstParent = getInitialId();
+        }
+        Commit commit;
+        if (secondParent == null) {
+            commit = new Commit(message, firstParent);
+        } else {
+            commit = new Commit(message, firstParent, secondParent);
+        }
+        Map<String, String> addition = new TreeMap<>();
+        Set<String> removal = new TreeSet<>();
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            String name = file.getKey();
+            if (file.getValue() == null) {
+                removal.add(name);
+                continue;
+            }
+            Blob blob = new Blob(file.getValue());
+            // Stores the blob as a delta against the parent's version.
+            blob.save(commit.getBlobId(name));
+            addition.put(name, blob.getId());
+        }
+        commit.update(addition, removal);
+        commit.save();
+        messages.add(commit);
+        Session.setId(branch, commit.getId());
+        if (mark != null) {
+            marks.put(mark, commit.getId());
+        }
+        commits += 1;
+    }
+
+    private void readReset(String branch) throws IOException {
+        String line;
+        while ((line = readLine()) != null && !line.isEmpty()) {
+            if (line.startsWith("from ")) {
+                String id = resolve(line.substring("from ".length()));
+                Session.setId(branch, id);
+            } else {
+                pushedBack = line;
+                break;
+            }
+        }
+    }
+
+    /** Returns the ID of the commit REF names. */
+    private String resolve(String ref) {
+        String id;
+        if (ref.startsWith(":")) {
+            id = marks.get(ref);
+        } else {
+            id = Session.getId(ref);
+            if (id == null) {
+                Commit commit = Commit.load(ref);
+                id = commit == null ? null : commit.getId();
+            }
+        }
+        if (id == null) {
+            String error = "No commit with that id exists.";
+            Main.exit(error);
+        }
+        return id;
+    }
+
+    private String getInitialId() {
+        if (initialId == null) {
+            initialId = new Commit().getId();
+        }
+        return initialId;
+    }
+
+    /**
+     * Reads the number of bytes LENGTH gives, and the newline after them if
+     * there is one.
+     */
+    private byte[] readData(String length) throws IOException {
+        int size = -1;
+        try {
+            size = Integer.parseInt(length);
+        } catch (NumberFormatException excp) {
+            malformed();
+        }
+        if (size < 0) {
+            malformed();
+        }
+        byte[] data = in.readNBytes(size);
+        if (data.length < size) {
+            malformed();
+        }
+        for (byte b : data) {
+            if (b == '\n') {
+                lineNumber += 1;
+            }
+        }
+        in.mark(1);
+        if (in.read() == '\n') {
+            lineNumber += 1;
+        } else {
+            in.reset();
+        }
+        return data;
+    }
+
+    /**
+     * Reads the next line without its newline, or returns null at the end
+     * of the stream.
+     */
+    private String readLine() throws IOException {
+        if (pushedBack != null) {
+            String line = pushedBack;
+            pushedBack = null;
+            return line;
+        }
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b = in.read();
+        if (b < 0) {
+            return null;
+        }
+        while (b >= 0 && b != '\n') {
+            line.write(b);
+            b = in.read();
+        }
+        lineNumber += 1;
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    private void malformed() {
+        String error = "Malformed import stream at line " + lineNumber + ".";
+        Main.exit(error);
+    }
+}
@@ -0,0 +1,94 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Deletes the objects of a Gitlet repository that nothing refers to any
+ * more, such as the commits left behind by `reset` and `rm-branch` and the
+ * blobs of files staged and then changed again before a commit.
+ *
+ * Marking starts from the commit of every branch and the staged files. It
+ * follows the parents of each commit, the subtrees and files of each tree,
+ * and the delta bases and chunks of each blob. Commits are loaded a
+ * generation at a time and trees and blobs are marked by all the workers
+ * of the common fork-join pool, which share the sets of marked objects.
+ * Objects stored within the grace period of the gc.gracePeriod setting
+ * are kept even if unreachable, as a command may still be using them, so
+ * they are marked as well, with everything they refer to. Sweeping then
+ * deletes the unmarked objects and rewrites the packfiles without them.
+ */
+class GarbageCollector {
+    private final Set<String> commits = ConcurrentHashMap.newKeySet();
+    private final Set<String> trees = ConcurrentHashMap.newKeySet();
+    // Blobs of the files in the marked trees and the staging area.
+    private final Set<String> files = ConcurrentHashMap.newKeySet();
+    private final Set<String> blobs = ConcurrentHashMap.newKeySet();
+    private final Set<String> chunks = ConcurrentHashMap.newKeySet();
+    // Objects stored before this time, in milliseconds, may be deleted.
+    private final long cutoff;
+
+    private GarbageCollector() {
+        long gracePeriod = Config.getInt(Config.GRACE_PERIOD);
+        cutoff = System.currentTimeMillis() - gracePeriod * 1000;
+    }
+
+    /** Deletes the unreachable objects. Returns the number of bytes freed. */
+    static long run() {
+        GarbageCollector collector = new GarbageCollector();
+        collector.mark();
+        return collector.sweep();
+    }
+
+    private void mark() {
+        List<String> heads = new ArrayList<>();
+        for (String branch : plainFilenamesIn(Branch.BRANCHES)) {
+            heads.add(Session.getId(branch));
+        }
+        List<String> roots = markCommits(heads);
+        roots.addAll(markCommits(Commit.recent(commits, cutoff)));
+        roots.parallelStream().forEach(id -> Tree.reach(id, trees, files));
+        Tree.recent(trees, cutoff).parallelStream()
+            .forEach(id -> Tree.reach(id, trees, files));
+        files.addAll(Session.getStage().getAddition().values());
+        files.addAll(Blob.recent(files, cutoff));
+        files.parallelStream().forEach(id -> Blob.reach(id, blobs, chunks));
+    }
+
+    /**
+     * Marks the commits with the given IDs and their ancestors. Returns the
+     * IDs of their trees.
+     */
+    private List<String> markCommits(List<String> ids) {
+        List<String> roots = new ArrayList<>();
+        List<String> generation = ids;
+        while (!generation.isEmpty()) {
+            List<Commit> loaded = generation.parallelStream()
+                .filter(id -> id != null && commits.add(id))
+                .map(Commit::load).filter(Objects::nonNull)
+                .collect(Collectors.toList());
+            generation = new ArrayList<>();
+            for (Commit commit : loaded) {
+                roots.add(commit.getTree());
+                generation.add(commit.getfirstParent());
+                generation.add(commit.getSecondParent());
+            }
+        }
+        return roots;
+    }
+
+    private long sweep() {
+        long commitBytes = Commit.prune(commits, cutoff);
+        if (commitBytes > 0) {
+            // Find must not name the deleted commits.
+            MessageIndex.rebuild();
+        }
+        return commitBytes + Tree.prune(trees, cutoff)
+            + Blob.prune(blobs, chunks, cutoff);
+    }
+}
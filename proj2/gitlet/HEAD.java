@@ -8,7 +8,7 @@ public class HEAD {
     public static final File HEAD = join(Repository.GITLET, "HEAD");
 
     public static void setBranch(String branch) {
-        writeContents(HEAD, branch);
+        Journal.write(HEAD, branch);
     }
 
     public static String getBranch() {
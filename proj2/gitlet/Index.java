@@ -0,0 +1,127 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Represents the stat cache of a Gitlet repository. It records the size,
+ * modification time, and blob ID of each working file that has been
+ * hashed, so files whose size and modification time are unchanged are
+ * not read again.
+ *
+ * A file modified shortly before the index is saved could change again
+ * without getting a new modification time. As in git, such racy entries
+ * are smudged when the index is saved, so the file is hashed again the
+ * next time, when its entry is recorded afresh.
+ */
+public class Index implements Serializable {
+    private static final File INDEX = join(Repository.GITLET, "index");
+    /*
+     * Files modified this close to when the index is saved may change
+     * again without a different modification time, so they are rehashed.
+     */
+    private static final long RACY_MILLIS = 2000;
+    // Size of a smudged entry, which no file matches.
+    private static final long SMUDGED = -1;
+
+    // Maps the file name to its size, modification time, and blob ID.
+    private Map<String, Entry> entries;
+    private transient boolean changed;
+
+    private static class Entry implements Serializable {
+        private final long size;
+        private final long modified;
+        private final String blobId;
+
+        Entry(long fileSize, long modifiedTime, String id) {
+            size = fileSize;
+            modified = modifiedTime;
+            blobId = id;
+        }
+    }
+
+    public Index() {
+        entries = new HashMap<>();
+    }
+
+    /**
+     * Returns the blob ID of the contents of the given working file, hashing
+     * the file only if it changed since it was last recorded. Returns null
+     * if the file does not exist.
+     */
+    public String getBlobId(File file) {
+        BasicFileAttributes attributes = stat(file);
+        if (attributes == null) {
+            if (entries.remove(file.getName()) != null) {
+                changed = true;
+            }
+            return null;
+        }
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+        Entry entry = entries.get(file.getName());
+        if (entry != null && entry.size == size && entry.modified == modified) {
+            return entry.blobId;
+        }
+        String blobId = new Blob(file).getId();
+        entries.put(file.getName(), new Entry(size, modified, blobId));
+        changed = true;
+        return blobId;
+    }
+
+    /** Records that the given working file has the given blob ID. */
+    public void update(File file, String blobId) {
+        BasicFileAttributes attributes = stat(file);
+        if (attributes != null) {
+            entries.put(file.getName(), new Entry(attributes.size(),
+                attributes.lastModifiedTime().toMillis(), blobId));
+            changed = true;
+        }
+    }
+
+    private static BasicFileAttributes stat(File file) {
+        try {
+            return Files.readAttributes(
+                file.toPath(), BasicFileAttributes.class);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /**
+     * Saves the index if any entry changed since it was loaded, smudging
+     * the entries of files modified too close to now to be trusted.
+     */
+    public void save() {
+        if (changed) {
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Entry value = entry.getValue();
+                if (value.modified + RACY_MILLIS >= now) {
+                    entry.setValue(new Entry(SMUDGED, value.modified, null));
+                }
+            }
+            Journal.write(INDEX, serialize(this));
+            changed = false;
+        }
+    }
+
+    /** Loads the index, or returns an empty one if it is missing. */
+    public static Index load() {
+        if (!INDEX.exists()) {
+            return new Index();
+        }
+        try {
+            return readObject(INDEX, Index.class);
+        } catch (IllegalArgumentException excp) {
+            // A damaged index only costs rehashing, so it is rebuilt.
+            return new Index();
+        }
+    }
+}
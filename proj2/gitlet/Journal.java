@@ -0,0 +1,351 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Represents the write-ahead journal that makes the writes of a Gitlet
+ * command atomic and durable. New objects are written to their files as
+ * the command runs, while refs, HEAD, the stage, and the indexes are only
+ * recorded. At the end of the command the new objects are synced, and the
+ * journal file receives their paths and every recorded write and append,
+ * followed by a checksum, and is synced too. The recorded files are then
+ * replaced by atomic renames or appended to at their recorded lengths, and
+ * the journal is deleted once they and the directories holding them are
+ * synced.
+ *
+ * A command that starts while a journal exists finishes the one before
+ * it: a complete journal is replayed, and the objects of an incomplete one
+ * are deleted, as no ref can point to them. In relaxed mode, set by the
+ * core.durability setting or by a bulk import, nothing is journaled or
+ * synced, and only the atomic renames remain.
+ */
+class Journal {
+    public static final File JOURNAL = join(Repository.GITLET, "journal");
+    // Directory of the files written before they are renamed into place,
+    // kept apart so a leftover one is never taken for a branch or a ref.
+    private static final File TEMP = join(Repository.GITLET, "tmp");
+    // Kinds of journal records.
+    private static final byte OBJECT = 0;
+    private static final byte WRITE = 1;
+    private static final byte DELETE = 2;
+    private static final byte END = 3;
+    private static final byte APPEND = 4;
+
+    // Object files written by this command.
+    private static final List<File> objects = new ArrayList<>();
+    // New contents of the files to replace, null for files to delete.
+    private static final Map<File, byte[]> writes = new LinkedHashMap<>();
+    // Length of each file to append to, followed by the bytes to append.
+    private static final Map<File, byte[]> appends = new LinkedHashMap<>();
+    // Relaxed mode requested by the command itself.
+    private static boolean relaxed;
+
+    private Journal() {
+    }
+
+    /** Skips journaling and syncing for the rest of the command. */
+    static void setRelaxed(boolean relax) {
+        relaxed = relax;
+    }
+
+    private static boolean isRelaxed() {
+        return relaxed
+            || Config.get(Config.DURABILITY).equals(Config.RELAXED);
+    }
+
+    /** Records that a new object was written to FILE. */
+    static synchronized void object(File file) {
+        if (!isRelaxed()) {
+            objects.add(file);
+        }
+    }
+
+    /** Records that FILE is to be replaced by CONTENTS. */
+    static void write(File file, byte[] contents) {
+        writes.put(file, contents);
+    }
+
+    static void write(File file, String contents) {
+        write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Records that FILE is to be deleted. */
+    static void delete(File file) {
+        writes.put(file, null);
+    }
+
+    /**
+     * Records that DATA is to be appended to FILE. The record keeps the
+     * length FILE has now, so applying it again appends DATA only once.
+     */
+    static void append(File file, byte[] data) {
+        byte[] pending = appends.get(file);
+        ByteBuffer record;
+        if (pending == null) {
+            record = ByteBuffer.allocate(8 + data.length)
+                .putLong(file.length());
+        } else {
+            record = ByteBuffer.allocate(pending.length + data.length)
+                .put(pending);
+        }
+        appends.put(file, record.put(data).array());
+    }
+
+    /** Drops the writes of a command that did not finish. */
+    static void reset() {
+        objects.clear();
+        writes.clear();
+        appends.clear();
+        relaxed = false;
+    }
+
+    /** Makes the recorded writes durable, then applies them. */
+    static void commit() {
+        if (objects.isEmpty() && writes.isEmpty() && appends.isEmpty()) {
+            return;
+        }
+        boolean logged = !isRelaxed();
+        if (logged) {
+            // A replayed journal must never name objects that were lost.
+            sync(objects);
+            log();
+        }
+        for (Map.Entry<File, byte[]> write : writes.entrySet()) {
+            apply(write.getKey(), write.getValue());
+        }
+        for (Map.Entry<File, byte[]> append : appends.entrySet()) {
+            extend(append.getKey(), append.getValue());
+        }
+        if (logged) {
+            List<File> applied = new ArrayList<>(writes.keySet());
+            applied.addAll(appends.keySet());
+            sync(applied);
+            JOURNAL.delete();
+        }
+        objects.clear();
+        writes.clear();
+        appends.clear();
+    }
+
+    /** Writes the journal and syncs it to disk. */
+    private static void log() {
+        CRC32 crc = new CRC32();
+        int count = 0;
+        try (FileChannel out = FileChannel.open(JOURNAL.toPath(),
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (File file : objects) {
+                record(out, crc, OBJECT, file, ByteBuffer.allocate(0));
+                count += 1;
+            }
+            for (Map.Entry<File, byte[]> write : writes.entrySet()) {
+                byte[] contents = write.getValue();
+                record(out, crc, contents == null ? DELETE : WRITE,
+                    write.getKey(),
+                    ByteBuffer.wrap(contents == null ? new byte[0] : contents));
+                count += 1;
+            }
+            for (Map.Entry<File, byte[]> append : appends.entrySet()) {
+                record(out, crc, APPEND, append.getKey(),
+                    ByteBuffer.wrap(append.getValue()));
+                count += 1;
+            }
+            ByteBuffer end = ByteBuffer.allocate(1 + 4 + 8);
+            end.put(END).putInt(count).putLong(crc.getValue()).flip();
+            writeFully(out, end);
+            out.force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Appends a record of the given kind, file, and data to OUT. */
+    private static void record(
+        FileChannel out,
+        CRC32 crc,
+        byte kind,
+        File file,
+        ByteBuffer data) throws IOException {
+        byte[] path = Repository.GITLET.toPath().relativize(file.toPath())
+            .toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(1 + 4 + path.length + 8);
+        header.put(kind).putInt(path.length).put(path)
+            .putLong(data.remaining()).flip();
+        crc.update(header.duplicate());
+        crc.update(data.duplicate());
+        writeFully(out, header);
+        writeFully(out, data);
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer)
+        throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Syncs each of FILES that exists and the directories holding them, up
+     * to the repository directory, so their contents and names survive a
+     * crash.
+     */
+    private static void sync(Collection<File> files) {
+        Set<File> dirs = new LinkedHashSet<>();
+        try {
+            for (File file : files) {
+                if (file.isFile()) {
+                    try (FileChannel channel = FileChannel.open(
+                             file.toPath(), StandardOpenOption.WRITE)) {
+                        channel.force(true);
+                    }
+                }
+                File dir = file.getParentFile();
+                while (dir != null && dirs.add(dir)
+                    && !dir.equals(Repository.GITLET)) {
+                    dir = dir.getParentFile();
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        for (File dir : dirs) {
+            try (FileChannel channel = FileChannel.open(dir.toPath())) {
+                channel.force(true);
+            } catch (IOException excp) {
+                // Not every platform can open a directory to sync it.
+            }
+        }
+    }
+
+    /**
+     * Replaces FILE by CONTENTS through a temporary file in TEMP and an
+     * atomic rename, or deletes it if CONTENTS is null.
+     */
+    private static void apply(File file, byte[] contents) {
+        if (contents == null) {
+            file.delete();
+            return;
+        }
+        TEMP.mkdir();
+        File temp = join(TEMP, sha1(file.getPath()));
+        writeContents(temp, (Object) contents);
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Applies an append RECORD to FILE: writes the bytes to append at the
+     * length FILE had when the append was recorded, dropping anything an
+     * interrupted append left after it.
+     */
+    private static void extend(File file, byte[] record) {
+        ByteBuffer data = ByteBuffer.wrap(record);
+        long length = data.getLong();
+        try (FileChannel out = FileChannel.open(file.toPath(),
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            out.truncate(length);
+            long position = length;
+            while (data.hasRemaining()) {
+                position += out.write(data, position);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Finishes the command interrupted while its journal existed. The
+     * writes of a complete journal are replayed, as its objects were synced
+     * first; the objects of an incomplete one, which may be torn, are
+     * deleted.
+     */
+    static void recover() {
+        if (!JOURNAL.isFile()) {
+            return;
+        }
+        MappedByteBuffer in;
+        try (FileChannel channel = FileChannel.open(JOURNAL.toPath())) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        List<Object[]> records = new ArrayList<>();
+        boolean complete = read(in, records);
+        List<File> applied = new ArrayList<>();
+        for (Object[] record : records) {
+            byte kind = (byte) record[0];
+            File file = (File) record[1];
+            if (!complete) {
+                if (kind == OBJECT) {
+                    file.delete();
+                }
+            } else if (kind == DELETE) {
+                apply(file, null);
+                applied.add(file);
+            } else if (kind == WRITE) {
+                file.getParentFile().mkdirs();
+                apply(file, (byte[]) record[2]);
+                applied.add(file);
+            } else if (kind == APPEND) {
+                extend(file, (byte[]) record[2]);
+                applied.add(file);
+            }
+        }
+        sync(applied);
+        JOURNAL.delete();
+    }
+
+    /**
+     * Reads the records of the journal in IN into RECORDS as the kind, the
+     * file, and the data of each. Returns true if the journal ends with a
+     * valid checksum.
+     */
+    private static boolean read(ByteBuffer in, List<Object[]> records) {
+        CRC32 crc = new CRC32();
+        try {
+            while (in.hasRemaining()) {
+                int start = in.position();
+                byte kind = in.get();
+                if (kind == END) {
+                    int count = in.getInt();
+                    long checksum = in.getLong();
+                    return count == records.size()
+                        && checksum == crc.getValue();
+                }
+                byte[] path = new byte[in.getInt()];
+                in.get(path);
+                byte[] data = new byte[Math.toIntExact(in.getLong())];
+                in.get(data);
+                crc.update(in.duplicate().position(start).limit(in.position()));
+                File file = join(Repository.GITLET,
+                    new String(path, StandardCharsets.UTF_8));
+                records.add(new Object[] {kind, file, data});
+            }
+        } catch (RuntimeException excp) {
+            // A torn record ends the journal.
+        }
+        return false;
+    }
+}
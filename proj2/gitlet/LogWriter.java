@@ -0,0 +1,157 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Writes the commits shown by `log` and `global-log` to standard output
+ * through one buffer, so printing a commit allocates no strings. It stops
+ * accepting commits after the `--max-count=N` limit and skips commits made
+ * before the `--since=DATE` limit. With `--porcelain` each commit is one
+ * tab-separated line of its ID, parents, time in seconds since the epoch,
+ * and message with backslashes, tabs, and newlines escaped.
+ */
+class LogWriter implements AutoCloseable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int UNLIMITED = -1;
+
+    private final Writer out;
+    private int maxCount = UNLIMITED;
+    private long since = Long.MIN_VALUE;
+    private boolean porcelain;
+    // Number of commits written so far.
+    private int count;
+
+    private LogWriter() {
+        out = new BufferedWriter(new OutputStreamWriter(
+            System.out, Charset.defaultCharset()), BUFFER_SIZE);
+    }
+
+    /**
+     * Returns a writer for the options that follow the command name in
+     * ARGS. Exits if an option is not recognized.
+     */
+    static LogWriter open(String[] args) {
+        LogWriter writer = new LogWriter();
+        for (int i = 1; i < args.length; i += 1) {
+            String arg = args[i];
+            if (arg.startsWith("--max-count=")) {
+                writer.maxCount = parseCount(arg.substring(12));
+            } else if (arg.startsWith("--since=")) {
+                writer.since = parseDate(arg.substring(8));
+            } else if (arg.equals("--porcelain")) {
+                writer.porcelain = true;
+            } else {
+                Main.exit("Incorrect operands.");
+            }
+        }
+        return writer;
+    }
+
+    private static int parseCount(String count) {
+        try {
+            int n = Integer.parseInt(count);
+            if (n >= 0) {
+                return n;
+            }
+        } catch (NumberFormatException excp) {
+            // Falls through to the error below.
+        }
+        Main.exit("Incorrect operands.");
+        return UNLIMITED;
+    }
+
+    /**
+     * Returns the seconds since the epoch of a date given as yyyy-MM-dd or
+     * yyyy-MM-ddTHH:mm:ss in the local time zone.
+     */
+    private static long parseDate(String date) {
+        ZoneId zone = ZoneId.systemDefault();
+        try {
+            if (date.contains("T")) {
+                return LocalDateTime.parse(date).atZone(zone)
+                    .toEpochSecond();
+            }
+            return LocalDate.parse(date).atStartOfDay(zone).toEpochSecond();
+        } catch (DateTimeParseException excp) {
+            Main.exit("Incorrect operands.");
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /** Returns true once the writer has written as many commits as allowed. */
+    boolean isFull() {
+        return maxCount != UNLIMITED && count >= maxCount;
+    }
+
+    /** Returns true if the commit was made before the `--since` limit. */
+    boolean isTooOld(Commit commit) {
+        return commit.getTime() < since;
+    }
+
+    /**
+     * Writes the given commit unless it is too old or the writer is full.
+     */
+    void write(Commit commit) {
+        if (isFull() || isTooOld(commit)) {
+            return;
+        }
+        try {
+            if (porcelain) {
+                writeLine(commit);
+            } else {
+                commit.writeLog(out);
+                out.write('\n');
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        count += 1;
+    }
+
+    private void writeLine(Commit commit) throws IOException {
+        out.write(commit.getId());
+        out.write('\t');
+        writeId(commit.getfirstParent());
+        out.write('\t');
+        writeId(commit.getSecondParent());
+        out.write('\t');
+        out.write(Long.toString(commit.getTime()));
+        out.write('\t');
+        String message = commit.getMessage();
+        for (int i = 0; i < message.length(); i += 1) {
+            char c = message.charAt(i);
+            if (c == '\\') {
+                out.write("\\\\");
+            } else if (c == '\t') {
+                out.write("\\t");
+            } else if (c == '\n') {
+                out.write("\\n");
+            } else {
+                out.write(c);
+            }
+        }
+        out.write('\n');
+    }
+
+    private void writeId(String id) throws IOException {
+        out.write(id == null ? "-" : id);
+    }
+
+    /** Flushes the buffered output. */
+    @Override
+    public void close() {
+        try {
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
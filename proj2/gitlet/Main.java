@@ -4,6 +4,15 @@ package gitlet;
  *  @author Yaohui Wu
  */
 public class Main {
+    // Whether commands run in the daemon, which must outlive them.
+    private static boolean serving;
+
+    /** Ends a command run by the daemon without ending the daemon. */
+    static class Exit extends RuntimeException {
+        Exit() {
+            super(null, null, false, false);
+        }
+    }
 
     /**
      * Usage: java gitlet.Main ARGS, where ARGS contains <COMMAND> <OPERAND1>
@@ -24,6 +33,9 @@ public class Main {
             return;
         } else {
             validateGitlet();
+            // Finishes the writes of a command that was interrupted.
+            Journal.recover();
+            Repository.validateFormat();
         }
         switch(command) {
             case "add":
@@ -42,16 +54,19 @@ public class Main {
                 Repository.rm(args[1]);
                 break;
             case "log":
-                // Handles the `log` command.
-                validateArgs(1, argsNum);
-                Repository.log();
+                // Handles the `log [options]` command.
+                Repository.log(LogWriter.open(args));
                 break;
             case "global-log":
-                // Handles the `global-log` command.
-                validateArgs(1, argsNum);
-                Repository.globalLog();
+                // Handles the `global-log [options]` command.
+                Repository.globalLog(LogWriter.open(args));
                 break;
             case "find":
+                if (argsNum == 3 && args[1].equals("--token")) {
+                    // Handles the `find --token [word]` command.
+                    Repository.findToken(args[2]);
+                    break;
+                }
                 // Handles the `find [commit message]` command.
                 validateArgs(2, argsNum);
                 Repository.find(args[1]);
@@ -84,21 +99,83 @@ public class Main {
                 validateArgs(2, argsNum);
                 Repository.merge(args[1]);
                 break;
+            case "diff":
+                if (argsNum == 1) {
+                    // Handles the `diff` command.
+                    Repository.diff();
+                } else if (argsNum == 2) {
+                    // Handles the `diff [commit id]` command.
+                    Repository.diff(args[1]);
+                } else {
+                    // Handles the `diff [commit id] [commit id]` command.
+                    validateArgs(3, argsNum);
+                    Repository.diff(args[1], args[2]);
+                }
+                break;
+            case "gc":
+                // Handles the `gc` command.
+                validateArgs(1, argsNum);
+                Repository.gc();
+                break;
+            case "config":
+                // Handles the `config [key] [value]` command.
+                if (argsNum == 2) {
+                    Repository.config(args[1]);
+                    break;
+                }
+                validateArgs(3, argsNum);
+                Repository.config(args[1], args[2]);
+                break;
+            case "fast-import":
+                // Handles the `fast-import [file]` command.
+                if (argsNum == 2) {
+                    Repository.fastImport(args[1]);
+                    break;
+                }
+                validateArgs(1, argsNum);
+                Repository.fastImport(System.in);
+                break;
+            case "daemon":
+                if (argsNum == 2 && args[1].equals("stop")) {
+                    // Handles the `daemon stop` command.
+                    Daemon.stop();
+                    return;
+                }
+                // Handles the `daemon` command.
+                validateArgs(1, argsNum);
+                Daemon.serve();
+                return;
+            case "stats":
+                // Handles the `stats` command.
+                validateArgs(1, argsNum);
+                Repository.stats();
+                break;
             default:
                 // Input command does not exist.
                 error = "No command with that name exists.";
                 exit(error);
         }
+        // Writes back the state the command changed.
+        Session.flush();
     }
 
     /** Prints an error message and exits the program. */
     public static void exit(String error) {
         // Prints the error message.
         System.out.println(error);
+        if (serving) {
+            // Only the command ends when the daemon runs it.
+            throw new Exit();
+        }
         // Exits the program with error code 0 immediately.
         System.exit(0);
     }
 
+    /** Makes exit end only the command, for the daemon that runs it. */
+    static void setServing(boolean serve) {
+        serving = serve;
+    }
+
     /** Validates a command has the correct number of arguments. */
     private static void validateArgs(int num, int argsNum) {
         if (num != argsNum) {
@@ -0,0 +1,156 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Finds the best common ancestor of two commits. Both histories are walked
+ * together, newest generation first, and the walk stops as soon as every
+ * commit left to visit is known to lie below a common ancestor.
+ */
+class MergeBase {
+    // Reachable from the first commit.
+    private static final int ONE = 1;
+    // Reachable from the second commit.
+    private static final int TWO = 2;
+    // Reachable from a common ancestor already found.
+    private static final int STALE = 4;
+
+    /** The ancestry information needed to find merge bases. */
+    interface History {
+        /** Returns the IDs of the parents of the given commit. */
+        String[] parents(String id);
+
+        /** Returns the generation number of the given commit. */
+        int generation(String id);
+
+        /** Returns the time of the given commit. */
+        long time(String id);
+
+        /** Returns true if ANCESTOR is reachable from the given commit. */
+        boolean isAncestor(String ancestor, String id);
+    }
+
+    private final History history;
+    // Flags of the commits reached so far.
+    private final Map<String, Integer> flags = new HashMap<>();
+    private final PriorityQueue<String> queue;
+    private final Set<String> queued = new HashSet<>();
+    // Number of queued commits that are not stale.
+    private int active;
+
+    private MergeBase(History commits) {
+        history = commits;
+        queue = new PriorityQueue<>(newestFirst(commits));
+    }
+
+    /**
+     * Returns the ID of the best common ancestor of the two given commits,
+     * or null if they have none. When there are several latest common
+     * ancestors, as after criss-cross merges, the one with the highest
+     * generation number wins, then the most recent one.
+     */
+    static String find(History history, String one, String two) {
+        List<String> bases = findAll(history, one, two);
+        if (bases.isEmpty()) {
+            return null;
+        }
+        bases.sort(newestFirst(history));
+        return bases.get(0);
+    }
+
+    /**
+     * Returns the IDs of all the latest common ancestors of the two given
+     * commits, none of which is an ancestor of another.
+     */
+    static List<String> findAll(History history, String one, String two) {
+        List<String> bases = new ArrayList<>();
+        if (one.equals(two)) {
+            bases.add(one);
+            return bases;
+        }
+        List<String> candidates = new MergeBase(history).paint(one, two);
+        for (String candidate : candidates) {
+            boolean redundant = false;
+            for (String other : candidates) {
+                if (!other.equals(candidate)
+                    && history.isAncestor(candidate, other)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                bases.add(candidate);
+            }
+        }
+        return bases;
+    }
+
+    /**
+     * Walks back from both commits, marking each commit with the sides
+     * that reach it. Returns the common ancestors that are not below
+     * another common ancestor found earlier.
+     */
+    private List<String> paint(String one, String two) {
+        List<String> results = new ArrayList<>();
+        mark(one, ONE);
+        mark(two, TWO);
+        while (active > 0) {
+            String id = queue.poll();
+            queued.remove(id);
+            int flag = flags.get(id);
+            if ((flag & STALE) == 0) {
+                active -= 1;
+            }
+            if ((flag & (ONE | TWO | STALE)) == (ONE | TWO)) {
+                results.add(id);
+                flag |= STALE;
+                flags.put(id, flag);
+            }
+            for (String parent : history.parents(id)) {
+                mark(parent, flag);
+            }
+        }
+        return results;
+    }
+
+    /** Adds FLAG to the flags of the given commit, queueing it if new. */
+    private void mark(String id, int flag) {
+        Integer old = flags.get(id);
+        int current = old == null ? 0 : old;
+        if (old != null && (current | flag) == current) {
+            return;
+        }
+        flags.put(id, current | flag);
+        if (queued.contains(id)) {
+            if ((current & STALE) == 0 && (flag & STALE) != 0) {
+                active -= 1;
+            }
+        } else {
+            /*
+             * Parents have lower generation numbers than their children, so
+             * a commit is normally reached again only while still queued.
+             */
+            queue.add(id);
+            queued.add(id);
+            if (((current | flag) & STALE) == 0) {
+                active += 1;
+            }
+        }
+    }
+
+    /** Orders commits by generation number, then time, newest first. */
+    private static Comparator<String> newestFirst(History history) {
+        Comparator<String> generation = Comparator.comparingInt(
+            history::generation);
+        Comparator<String> time = Comparator.comparingLong(history::time);
+        return generation.thenComparing(time)
+            .thenComparing(Comparator.naturalOrder()).reversed();
+    }
+}
@@ -0,0 +1,239 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Plans and carries out the file changes of a merge. What happens to each
+ * file the given branch changed is decided in memory from the blob IDs
+ * alone. The working files are then written in parallel on the common
+ * fork-join pool, each content merge and blob save independently of the
+ * others, and the staging area and stat cache are changed in one pass at
+ * the end.
+ */
+class MergePlan {
+    /** What the merge does to one file. */
+    private enum Action {
+        // Takes the given version of a file the current branch left alone.
+        TAKE,
+        // Removes a file the given branch deleted and the current kept.
+        REMOVE,
+        // Merges the lines of a file both branches changed.
+        MERGE,
+        // Marks a file one branch deleted and the other changed.
+        CONFLICT
+    }
+
+    /** The plan for one file and, once written, its outcome. */
+    private static class Step {
+        private final String file;
+        private final Action action;
+        private final String splitBlobId;
+        private final String currentBlobId;
+        private final String givenBlobId;
+        // Blob ID of the merged file, null if it is removed.
+        private String blobId;
+        private boolean conflict;
+
+        Step(
+            String fileName,
+            Action fileAction,
+            String split,
+            String current,
+            String given) {
+            file = fileName;
+            action = fileAction;
+            splitBlobId = split;
+            currentBlobId = current;
+            givenBlobId = given;
+        }
+
+        /** Writes the working file of this step and saves its blob. */
+        void write() {
+            File target = join(Repository.CWD, file);
+            switch (action) {
+                case TAKE:
+                    Blob.checkout(givenBlobId, target);
+                    blobId = givenBlobId;
+                    return;
+                case REMOVE:
+                    restrictedDelete(target);
+                    return;
+                default:
+                    break;
+            }
+            try (OutputStream out = new BufferedOutputStream(
+                     Files.newOutputStream(target.toPath()))) {
+                if (action == Action.MERGE) {
+                    conflict = Diff3.merge(lines(splitBlobId),
+                        lines(currentBlobId),
+                        lines(givenBlobId), out);
+                } else {
+                    // The whole file conflicts with its deletion.
+                    Diff3.conflict(lines(currentBlobId), lines(givenBlobId),
+                        out);
+                    conflict = true;
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            Blob blob = new Blob(target);
+            // Stores the blob as a delta against the committed version.
+            blob.save(currentBlobId);
+            blobId = blob.getId();
+        }
+
+        private static Diff.Lines lines(String blobId) {
+            return blobId == null ? Diff.Lines.empty() : Diff.Lines.of(blobId);
+        }
+    }
+
+    private final Commit current;
+    private final List<Step> steps = new ArrayList<>();
+
+    /**
+     * Plans the merge of the GIVEN commit into the CURRENT one, from their
+     * latest common ancestor SPLIT. Only the files the given branch changed
+     * since the split point are looked at. A file one branch renamed and
+     * the other edited is merged into the renamed file.
+     */
+    MergePlan(Commit split, Commit currentCommit, Commit given) {
+        current = currentCommit;
+        Map<String, String[]> changes =
+            Tree.diff(split.getTree(), given.getTree());
+        // Files planned as part of a rename.
+        Set<String> planned = new HashSet<>();
+        for (Map.Entry<String, String> rename
+                 : getRenames(changes).entrySet()) {
+            String source = rename.getKey();
+            String target = rename.getValue();
+            String currentBlobId = current.getBlobId(source);
+            String splitBlobId = changes.get(source)[0];
+            if (currentBlobId != null && !currentBlobId.equals(splitBlobId)
+                && current.getBlobId(target) == null) {
+                // Given renamed the file the current branch edited.
+                steps.add(new Step(target, Action.MERGE, splitBlobId,
+                    currentBlobId, changes.get(target)[1]));
+                steps.add(new Step(source, Action.REMOVE, splitBlobId,
+                    currentBlobId, null));
+                planned.add(source);
+                planned.add(target);
+            }
+        }
+        for (Map.Entry<String, String> rename : getRenames(
+                 Tree.diff(split.getTree(), current.getTree())).entrySet()) {
+            String source = rename.getKey();
+            String target = rename.getValue();
+            String[] change = changes.get(source);
+            if (change != null && change[1] != null
+                && !changes.containsKey(target)) {
+                // Current renamed the file the given branch edited.
+                steps.add(new Step(target, Action.MERGE, change[0],
+                    current.getBlobId(target), change[1]));
+                planned.add(source);
+            }
+        }
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            if (!planned.contains(change.getKey())) {
+                plan(change.getKey(), change.getValue()[0],
+                    change.getValue()[1]);
+            }
+        }
+    }
+
+    /**
+     * Returns the renames among CHANGES, each deleted file mapped to the
+     * file it was renamed to.
+     */
+    private static Map<String, String> getRenames(
+        Map<String, String[]> changes) {
+        Map<String, String> renames = new TreeMap<>();
+        for (Renames.Rename rename : Renames.find(changes).values()) {
+            if (!rename.copy) {
+                renames.put(rename.source, rename.target);
+            }
+        }
+        return renames;
+    }
+
+    /**
+     * Plans the merge of a file that was not renamed, with its blob IDs
+     * at the split point and in the given commit.
+     */
+    private void plan(String file, String splitBlobId, String givenBlobId) {
+        String currentBlobId = current.getBlobId(file);
+        Action action = null;
+        if (givenBlobId != null && (currentBlobId == null
+            ? splitBlobId == null : currentBlobId.equals(splitBlobId))) {
+            /*
+             * File is modified in the given branch but not the current
+             * branch or file is present only in the given branch.
+             */
+            action = Action.TAKE;
+        } else if (givenBlobId == null && currentBlobId != null
+            && currentBlobId.equals(splitBlobId)) {
+            /*
+             * File was present at the split point, is unmodified in the
+             * current branch, and is absent in the given branch.
+             */
+            action = Action.REMOVE;
+        } else if (currentBlobId != null && givenBlobId != null
+            && !currentBlobId.equals(givenBlobId)) {
+            /*
+             * Contents of both are changed and different from each other,
+             * or the file was absent at the split point and was added with
+             * different contents.
+             */
+            action = Action.MERGE;
+        } else if (splitBlobId != null && (currentBlobId == null
+            ? givenBlobId != null : givenBlobId == null)) {
+            /*
+             * Contents of one are changed and the other file is deleted; a
+             * file deleted on both sides needs nothing.
+             */
+            action = Action.CONFLICT;
+        }
+        if (action != null) {
+            steps.add(new Step(file, action, splitBlobId, currentBlobId,
+                givenBlobId));
+        }
+    }
+
+    /**
+     * Writes the working files in parallel, then stages them all at once.
+     * Returns true if a merge conflict occurs.
+     */
+    boolean run() {
+        steps.parallelStream().forEach(Step::write);
+        StagingArea stage = Session.getStage();
+        Map<String, String> addition = stage.getAddition();
+        Index index = Session.getIndex();
+        boolean conflict = false;
+        for (Step step : steps) {
+            File file = join(Repository.CWD, step.file);
+            if (step.blobId == null) {
+                addition.remove(step.file);
+                stage.getRemoval().add(step.file);
+            } else {
+                if (!step.blobId.equals(current.getBlobId(step.file))) {
+                    addition.put(step.file, step.blobId);
+                }
+                stage.getRemoval().remove(step.file);
+                index.update(file, step.blobId);
+            }
+            conflict |= step.conflict;
+        }
+        Session.stageChanged();
+        return conflict;
+    }
+}
@@ -0,0 +1,211 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Represents the inverted index of commit messages in a Gitlet repository.
+ * It maps each message, and each word of a message, to the IDs of the
+ * commits that have it, so `find` does not load any commit.
+ *
+ * The index is kept as a compacted file and a log of the commits added
+ * since. A commit only appends its ID and message to the log, without
+ * reading the index. Once the log outgrows the compacted file, the next
+ * save folds the log into a new compacted file, so the cost of a commit
+ * does not grow with the history. The index is rebuilt from the commits
+ * if it is missing or damaged.
+ */
+public class MessageIndex implements Serializable {
+    private static final File MESSAGES = join(Repository.GITLET, "messages");
+    private static final File LOG = join(Repository.GITLET, "messages.log");
+    // The log is never compacted while smaller than this.
+    private static final long MIN_COMPACT_SIZE = 64 << 10;
+
+    // Maps each message to the sorted IDs of the commits with it.
+    private Map<String, TreeSet<String>> messages;
+    // Maps each lowercase word to the sorted IDs of the commits using it.
+    private Map<String, TreeSet<String>> tokens;
+    // Whether the maps hold the whole index, not only the added commits.
+    private transient boolean loaded;
+    // IDs and messages of the commits added by this command.
+    private transient List<String[]> added;
+
+    public MessageIndex() {
+        messages = new HashMap<>();
+        tokens = new HashMap<>();
+        loaded = true;
+        added = new ArrayList<>();
+    }
+
+    /** Adds the given commit to the index. */
+    public void add(Commit commit) {
+        added.add(new String[] {commit.getId(), commit.getMessage()});
+        if (loaded) {
+            index(commit.getId(), commit.getMessage());
+        }
+    }
+
+    private void index(String id, String message) {
+        messages.computeIfAbsent(message, k -> new TreeSet<>()).add(id);
+        for (String token : tokenize(message)) {
+            tokens.computeIfAbsent(token, k -> new TreeSet<>()).add(id);
+        }
+    }
+
+    /** Returns the sorted IDs of the commits with the given message. */
+    public Set<String> find(String message) {
+        Set<String> ids = messages.get(message);
+        return ids == null ? Collections.emptySet() : ids;
+    }
+
+    /**
+     * Returns the sorted IDs of the commits whose message contains the
+     * given word, ignoring case.
+     */
+    public Set<String> findToken(String token) {
+        Set<String> ids = tokens.get(token.toLowerCase(Locale.ROOT));
+        return ids == null ? Collections.emptySet() : ids;
+    }
+
+    /** Splits a message into its lowercase words of letters and digits. */
+    private static Set<String> tokenize(String message) {
+        Set<String> words = new TreeSet<>();
+        for (String word : message.toLowerCase(Locale.ROOT)
+                 .split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Saves the commits added to the index, appending them to the log
+     * unless the log is due to be compacted.
+     */
+    public void save() {
+        long logSize = LOG.length();
+        boolean compact
+            = logSize >= Math.max(MIN_COMPACT_SIZE, MESSAGES.length());
+        if (!loaded && !compact && MESSAGES.isFile()) {
+            if (!added.isEmpty()) {
+                Journal.append(LOG, encode(added));
+            }
+            added.clear();
+            return;
+        }
+        if (!loaded) {
+            MessageIndex index = load();
+            for (String[] commit : added) {
+                index.index(commit[0], commit[1]);
+            }
+            messages = index.messages;
+            tokens = index.tokens;
+            loaded = true;
+        }
+        Journal.write(MESSAGES, serialize(this));
+        if (logSize > 0) {
+            Journal.delete(LOG);
+        }
+        added.clear();
+    }
+
+    /** Returns the log records of the given IDs and messages. */
+    private static byte[] encode(List<String[]> commits) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String[] commit : commits) {
+            byte[] message = commit[1].getBytes(StandardCharsets.UTF_8);
+            out.writeBytes(ByteBuffer.allocate(4).putInt(message.length)
+                .array());
+            out.writeBytes(commit[0].getBytes(StandardCharsets.US_ASCII));
+            out.writeBytes(message);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Adds the commits in the log to the index. Returns false if a record
+     * is torn or damaged.
+     */
+    private boolean replay() {
+        if (!LOG.isFile()) {
+            return true;
+        }
+        ByteBuffer in = ByteBuffer.wrap(readContents(LOG));
+        while (in.hasRemaining()) {
+            if (in.remaining() < 4 + UID_LENGTH) {
+                return false;
+            }
+            int length = in.getInt();
+            byte[] id = new byte[UID_LENGTH];
+            in.get(id);
+            if (length < 0 || length > in.remaining()
+                || !isId(new String(id, StandardCharsets.US_ASCII))) {
+                return false;
+            }
+            byte[] message = new byte[length];
+            in.get(message);
+            index(new String(id, StandardCharsets.US_ASCII),
+                new String(message, StandardCharsets.UTF_8));
+        }
+        return true;
+    }
+
+    private static boolean isId(String id) {
+        return id.chars().allMatch(c -> c >= '0' && c <= '9'
+            || c >= 'a' && c <= 'f');
+    }
+
+    /**
+     * Returns the index for adding commits, without reading the compacted
+     * file or the log.
+     */
+    public static MessageIndex forUpdate() {
+        MessageIndex index = new MessageIndex();
+        index.loaded = false;
+        return index;
+    }
+
+    /**
+     * Loads the index and the commits logged since it was compacted,
+     * rebuilding it from every stored commit if it is missing or cannot be
+     * read.
+     */
+    public static MessageIndex load() {
+        if (MESSAGES.exists()) {
+            try {
+                MessageIndex index = readObject(MESSAGES, MessageIndex.class);
+                index.loaded = true;
+                index.added = new ArrayList<>();
+                if (index.replay()) {
+                    return index;
+                }
+            } catch (IllegalArgumentException excp) {
+                // Falls through to rebuild the damaged index.
+            }
+        }
+        return rebuild();
+    }
+
+    /** Rebuilds the index from every stored commit and saves it. */
+    public static MessageIndex rebuild() {
+        MessageIndex index = new MessageIndex();
+        for (String id : Commit.ids()) {
+            index.add(Commit.load(id));
+        }
+        index.save();
+        return index;
+    }
+}
@@ -0,0 +1,46 @@
+package gitlet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of loaded objects that evicts the least recently used
+ * object when full, and counts how often lookups hit and miss.
+ */
+class ObjectCache<T> {
+    private final Map<String, T> objects;
+    private long hits;
+    private long misses;
+
+    ObjectCache(int capacity) {
+        objects = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /** Returns the cached object with the given ID, or null if absent. */
+    synchronized T get(String id) {
+        T object = objects.get(id);
+        if (object == null) {
+            misses += 1;
+        } else {
+            hits += 1;
+        }
+        return object;
+    }
+
+    synchronized void put(String id, T object) {
+        objects.put(id, object);
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+}
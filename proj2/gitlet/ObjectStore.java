@@ -0,0 +1,678 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Represents the storage of one kind of object in a Gitlet repository.
+ * New objects are written as loose files named by their ID, and the `gc`
+ * command moves loose objects into a packfile, apart from those too large
+ * for its index, which stay loose. Loose files are kept in
+ * subdirectories named by the first two digits of their ID, so finding the
+ * objects that start with a prefix only lists one small directory.
+ *
+ * Each stored object starts with a byte telling how it is stored. Objects
+ * are compressed with Deflater at the level of the core.compression
+ * setting, and a deflated object records its size before the compressed
+ * bytes. Objects that do not get smaller are stored as they are.
+ *
+ * The `gc` command also prunes the objects no branch or staged file can
+ * reach, once they are older than the gc.gracePeriod setting.
+ *
+ * While a bulk import batches writes, new objects are held in memory and
+ * appended to the packfile whenever a batch fills up, so they never become
+ * loose files.
+ */
+class ObjectStore {
+    public static final File PACKS = join(Repository.GITLET, "packs");
+    // Ways an object is stored.
+    private static final byte STORED = 0;
+    private static final byte DEFLATED = 1;
+    // Method and size that precede the bytes of a deflated object.
+    private static final int DEFLATED_HEADER_SIZE = 1 + 8;
+    // Size of the chunks in which objects are compressed and inflated.
+    private static final int BUFFER_SIZE = 1 << 16;
+    // Inflater and Deflater of each thread, reused as making one is costly.
+    private static final ThreadLocal<Inflater> INFLATERS
+        = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<Deflater> DEFLATERS
+        = ThreadLocal.withInitial(Deflater::new);
+    // Bytes of new objects a store holds before packing them.
+    private static final long BATCH_SIZE = 64L << 20;
+    // Every store made, so their batches can be packed together.
+    private static final List<ObjectStore> STORES = new ArrayList<>();
+    // Whether new objects are batched instead of written as loose files.
+    private static boolean batching;
+
+    // Directory of the loose objects.
+    private final File dir;
+    private final Pack pack;
+    // Stored forms of the batched objects that are not packed yet.
+    private final Map<String, byte[]> batch = new TreeMap<>();
+    private long batchSize;
+
+    ObjectStore(File looseDir, String name) {
+        dir = looseDir;
+        pack = new Pack(PACKS, name);
+        synchronized (STORES) {
+            STORES.add(this);
+        }
+    }
+
+    /** Batches the new objects of every store until finishBatch. */
+    static void startBatch() {
+        batching = true;
+    }
+
+    /** Packs the objects still batched and stops batching. */
+    static void finishBatch() {
+        synchronized (STORES) {
+            for (ObjectStore store : STORES) {
+                store.packBatch();
+            }
+        }
+        batching = false;
+    }
+
+    /** Drops the objects batched by a command that did not finish. */
+    static void resetBatch() {
+        synchronized (STORES) {
+            for (ObjectStore store : STORES) {
+                synchronized (store) {
+                    store.batch.clear();
+                    store.batchSize = 0;
+                }
+            }
+        }
+        batching = false;
+    }
+
+    /** Reopens the packs of every store that another process changed. */
+    static void refresh() {
+        synchronized (STORES) {
+            for (ObjectStore store : STORES) {
+                store.pack.refresh();
+            }
+        }
+    }
+
+    private synchronized byte[] batched(String id) {
+        return batch.get(id);
+    }
+
+    /** Adds the stored form of an object, packing the batch once full. */
+    private synchronized void addToBatch(String id, byte[] stored) {
+        batch.put(id, stored);
+        batchSize += stored.length;
+        if (batchSize >= BATCH_SIZE) {
+            packBatch();
+        }
+    }
+
+    private synchronized void packBatch() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        PACKS.mkdir();
+        pack.appendContents(batch);
+        batch.clear();
+        batchSize = 0;
+    }
+
+    /** Returns the loose file of the object with the given ID. */
+    private File file(String id) {
+        if (id.length() < 2) {
+            return join(dir, id);
+        }
+        return join(dir, id.substring(0, 2), id.substring(2));
+    }
+
+    /** Returns true if the object with the given ID is stored. */
+    boolean contains(String id) {
+        return batched(id) != null || file(id).isFile() || pack.contains(id);
+    }
+
+    /**
+     * Returns the bytes of the object with the given ID, or null if there
+     * is no such object.
+     */
+    byte[] read(String id) {
+        byte[] stored = batched(id);
+        if (stored == null) {
+            File file = file(id);
+            stored = file.isFile() ? readContents(file) : pack.read(id);
+        }
+        if (stored == null) {
+            return null;
+        }
+        if (stored[0] == STORED) {
+            return Arrays.copyOfRange(stored, 1, stored.length);
+        }
+        return inflate(ByteBuffer.wrap(stored));
+    }
+
+    /**
+     * Returns the bytes of the object with the given ID, mapped into memory
+     * if it is stored uncompressed, or null if there is no such object.
+     */
+    ByteBuffer map(String id) {
+        ByteBuffer stored = mapStored(id);
+        if (stored == null) {
+            return null;
+        }
+        if (stored.get(0) == STORED) {
+            return stored.slice(1, stored.limit() - 1);
+        }
+        return ByteBuffer.wrap(inflate(stored));
+    }
+
+    /** Maps the stored form of the object with the given ID into memory. */
+    private ByteBuffer mapStored(String id) {
+        byte[] batched = batched(id);
+        if (batched != null) {
+            return ByteBuffer.wrap(batched);
+        }
+        File file = file(id);
+        if (file.isFile()) {
+            try (FileChannel channel = FileChannel.open(file.toPath())) {
+                return channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return pack.map(id);
+    }
+
+    /**
+     * Writes the bytes of the object with the given ID, after the first
+     * SKIP of them, to the current position of OUT. Objects stored as they
+     * are go through FileChannel.transferTo and deflated ones are inflated
+     * one buffer at a time, so no object is held in memory whole. Returns
+     * false if there is no such object.
+     */
+    boolean transferTo(String id, long skip, WritableByteChannel out)
+        throws IOException {
+        return transferTo(id, skip, Long.MAX_VALUE, out);
+    }
+
+    /** Writes at most LIMIT bytes of the object, like transferTo. */
+    private boolean transferTo(
+        String id,
+        long skip,
+        long limit,
+        WritableByteChannel out) throws IOException {
+        byte[] batched = batched(id);
+        if (batched != null) {
+            transfer(ByteBuffer.wrap(batched), skip, limit, out);
+            return true;
+        }
+        File file = file(id);
+        if (file.isFile()) {
+            try (FileChannel in = FileChannel.open(file.toPath())) {
+                transfer(in, 0, in.size(), skip, limit, out);
+            }
+            return true;
+        }
+        long[] location = pack.locate(id);
+        if (location == null) {
+            return false;
+        }
+        transfer(pack.channel(), location[0], location[1], skip, limit, out);
+        return true;
+    }
+
+    /**
+     * Returns the first LENGTH bytes of the object with the given ID, or
+     * all of them if it is shorter, inflating no more than needed. Returns
+     * null if there is no such object.
+     */
+    byte[] readHead(String id, int length) {
+        ByteArrayOutputStream head = new ByteArrayOutputStream(length);
+        try {
+            if (!transferTo(id, 0, length, Channels.newChannel(head))) {
+                return null;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return head.toByteArray();
+    }
+
+    /** Returns the bytes of a deflated object from its stored form. */
+    private static byte[] inflate(ByteBuffer stored) {
+        byte[] bytes = new byte[Math.toIntExact(stored.getLong(1))];
+        Inflater inflater = inflater();
+        try {
+            inflater.setInput(stored.position(DEFLATED_HEADER_SIZE));
+            int n = 0;
+            while (n < bytes.length) {
+                int inflated = inflater.inflate(bytes, n, bytes.length - n);
+                if (inflated == 0 && inflater.needsInput()) {
+                    throw error("Truncated object.");
+                }
+                n += inflated;
+            }
+        } catch (DataFormatException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes;
+    }
+
+    private static Inflater inflater() {
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        return inflater;
+    }
+
+    /**
+     * Writes the bytes of the object whose stored form is STORED to OUT,
+     * after the first SKIP of them and at most LIMIT of them.
+     */
+    private static void transfer(
+        ByteBuffer stored,
+        long skip,
+        long limit,
+        WritableByteChannel out) throws IOException {
+        if (stored.get(0) == DEFLATED) {
+            inflate(stored.position(DEFLATED_HEADER_SIZE), null, 0, 0, skip,
+                limit, out);
+            return;
+        }
+        int from = (int) Math.min(stored.limit(), 1 + skip);
+        stored.position(from)
+            .limit((int) Math.min(stored.limit(), from + limit));
+        while (stored.hasRemaining()) {
+            out.write(stored);
+        }
+    }
+
+    /**
+     * Writes the bytes of the object whose stored form is the LENGTH bytes
+     * of IN at POSITION to OUT, after the first SKIP of them and at most
+     * LIMIT of them.
+     */
+    private static void transfer(
+        FileChannel in,
+        long position,
+        long length,
+        long skip,
+        long limit,
+        WritableByteChannel out) throws IOException {
+        ByteBuffer method = ByteBuffer.allocate(1);
+        if (in.read(method, position) < 1) {
+            throw error("Truncated object.");
+        }
+        if (method.get(0) == STORED) {
+            long count = Math.min(limit, length - 1 - skip);
+            Pack.transfer(in, position + 1 + skip, count, out);
+            return;
+        }
+        ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE).limit(0);
+        inflate(input, in, position + DEFLATED_HEADER_SIZE, position + length,
+            skip, limit, out);
+    }
+
+    /**
+     * Inflates the compressed bytes left in INPUT into OUT one buffer at a
+     * time, dropping the first SKIP inflated bytes and stopping after LIMIT
+     * more. Once INPUT runs out, it is refilled with the bytes of IN from
+     * NEXT up to END, unless IN is null.
+     */
+    private static void inflate(
+        ByteBuffer input,
+        FileChannel in,
+        long next,
+        long end,
+        long skip,
+        long limit,
+        WritableByteChannel out) throws IOException {
+        Inflater inflater = inflater();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try {
+            inflater.setInput(input);
+            while (limit > 0 && !inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (in == null || next >= end) {
+                        throw error("Truncated object.");
+                    }
+                    input.clear()
+                        .limit((int) Math.min(input.capacity(), end - next));
+                    int read = in.read(input, next);
+                    if (read < 0) {
+                        throw error("Truncated object.");
+                    }
+                    next += read;
+                    inflater.setInput(input.flip());
+                    continue;
+                }
+                buffer.clear();
+                int inflated = inflater.inflate(buffer);
+                buffer.flip();
+                int dropped = (int) Math.min(skip, inflated);
+                skip -= dropped;
+                buffer.position(dropped);
+                if (buffer.remaining() > limit) {
+                    buffer.limit(dropped + (int) limit);
+                }
+                limit -= buffer.remaining();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+        } catch (DataFormatException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the compression level of the core.compression setting. */
+    private static int level() {
+        return Config.getInt(Config.COMPRESSION);
+    }
+
+    /**
+     * Stores the concatenation of the byte arrays in CONTENTS as a loose
+     * object.
+     */
+    void write(String id, byte[]... contents) {
+        if (contains(id)) {
+            return;
+        }
+        long size = 0;
+        for (byte[] part : contents) {
+            size += part.length;
+        }
+        int level = level();
+        if (level != Deflater.NO_COMPRESSION) {
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+            try (OutputStream out = deflater(deflated, size, level)) {
+                for (byte[] part : contents) {
+                    out.write(part);
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (deflated.size() < DEFLATED_HEADER_SIZE + size) {
+                install(id, deflated.toByteArray());
+                return;
+            }
+        }
+        byte[][] stored = new byte[contents.length + 1][];
+        stored[0] = new byte[] {STORED};
+        System.arraycopy(contents, 0, stored, 1, contents.length);
+        install(id, stored);
+    }
+
+    /**
+     * Adds the object with the given ID and the concatenation of STORED as
+     * its stored form to the batch. Otherwise writes it as a loose file
+     * under a temporary name and renames it once complete.
+     */
+    private void install(String id, byte[]... stored) {
+        if (batching) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (byte[] part : stored) {
+                bytes.writeBytes(part);
+            }
+            addToBatch(id, bytes.toByteArray());
+            return;
+        }
+        File file = file(id);
+        file.getParentFile().mkdirs();
+        File temp = temp(file);
+        writeContents(temp, (Object[]) stored);
+        rename(temp, file);
+    }
+
+    /**
+     * Returns the temporary file an object is written to before it becomes
+     * FILE. Each thread has its own, as threads may write the same object.
+     */
+    private static File temp(File file) {
+        return new File(
+            file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+    }
+
+    /** Renames the complete object TEMP to FILE and journals it. */
+    private static void rename(File temp, File file) {
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.object(file);
+    }
+
+    /**
+     * Returns a stream that writes the header of a deflated object of the
+     * given size to OUT, followed by the compressed bytes written to it.
+     */
+    private static OutputStream deflater(
+        OutputStream out,
+        long size,
+        int level) throws IOException {
+        out.write(ByteBuffer.allocate(DEFLATED_HEADER_SIZE)
+            .put(DEFLATED).putLong(size).array());
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setLevel(level);
+        // Small objects get a buffer of their own size.
+        int bufferSize = (int) Math.max(512, Math.min(BUFFER_SIZE, size));
+        return new DeflaterOutputStream(out, deflater, bufferSize);
+    }
+
+    /**
+     * Stores HEADER followed by the contents of SOURCE as a loose object,
+     * without loading the file into memory. The object is written under a
+     * temporary name and renamed once complete. A file that does not
+     * compress is written again uncompressed.
+     */
+    void write(String id, byte[] header, File source) {
+        File file = file(id);
+        if (file.exists() || pack.contains(id)) {
+            return;
+        }
+        file.getParentFile().mkdirs();
+        File temp = temp(file);
+        long size = header.length + source.length();
+        int level = level();
+        try {
+            if (level == Deflater.NO_COMPRESSION
+                || !writeDeflated(header, source, size, level, temp)) {
+                writeStored(header, source, temp);
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        rename(temp, file);
+    }
+
+    /**
+     * Writes HEADER and SOURCE deflated to TEMP. Returns false if they did
+     * not get smaller.
+     */
+    private static boolean writeDeflated(
+        byte[] header,
+        File source,
+        long size,
+        int level,
+        File temp) throws IOException {
+        try (InputStream in = new FileInputStream(source);
+             OutputStream out = deflater(
+                 new FileOutputStream(temp), size, level)) {
+            out.write(header);
+            in.transferTo(out);
+        }
+        return temp.length() < DEFLATED_HEADER_SIZE + size;
+    }
+
+    /** Writes HEADER and SOURCE to TEMP uncompressed. */
+    private static void writeStored(byte[] header, File source, File temp)
+        throws IOException {
+        try (FileChannel in = FileChannel.open(source.toPath());
+             FileChannel out = FileChannel.open(temp.toPath(),
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(ByteBuffer.wrap(new byte[] {STORED}));
+            out.write(ByteBuffer.wrap(header));
+            Pack.transfer(in, 0, in.size(), out);
+        }
+    }
+
+    /** Returns the IDs of all the stored objects in sorted order. */
+    List<String> ids() {
+        TreeSet<String> ids = new TreeSet<>(pack.ids());
+        ids.addAll(looseIds());
+        synchronized (this) {
+            ids.addAll(batch.keySet());
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * Returns the IDs of the stored objects that start with the given
+     * prefix in sorted order, stopping after LIMIT of them. Asking for two
+     * tells a unique prefix from an ambiguous one.
+     */
+    List<String> findPrefix(String prefix, int limit) {
+        TreeSet<String> ids = new TreeSet<>(pack.findPrefix(prefix, limit));
+        for (String id : looseIds(prefix)) {
+            ids.add(id);
+        }
+        synchronized (this) {
+            for (String id : batch.keySet()) {
+                if (id.startsWith(prefix)) {
+                    ids.add(id);
+                }
+            }
+        }
+        List<String> result = new ArrayList<>(ids);
+        return result.subList(0, Math.min(limit, result.size()));
+    }
+
+    /**
+     * Moves the loose objects into the packfile, except those too large
+     * for it, which stay loose. Returns the number of objects packed.
+     */
+    int repack() {
+        Map<String, File> objects = new TreeMap<>();
+        for (String id : looseIds()) {
+            File file = file(id);
+            if (file.length() <= Pack.MAX_OBJECT_SIZE) {
+                objects.put(id, file);
+            }
+        }
+        if (objects.isEmpty()) {
+            return 0;
+        }
+        PACKS.mkdir();
+        pack.append(objects);
+        // Loose copies are deleted only once the index covers them.
+        for (File file : objects.values()) {
+            file.delete();
+            // Only succeeds once the subdirectory is empty.
+            file.getParentFile().delete();
+        }
+        return objects.size();
+    }
+
+    /**
+     * Deletes the objects not in KEEP that were stored before CUTOFF, in
+     * milliseconds since the epoch, and rewrites the packfile without
+     * them. Returns the number of bytes freed.
+     */
+    long prune(Set<String> keep, long cutoff) {
+        long freed = 0;
+        for (String id : looseIds()) {
+            File file = file(id);
+            if (!keep.contains(id) && file.lastModified() < cutoff) {
+                freed += file.length();
+                file.delete();
+                // Only succeeds once the subdirectory is empty.
+                file.getParentFile().delete();
+            }
+        }
+        return freed + pack.prune(keep, cutoff);
+    }
+
+    /**
+     * Returns the IDs of the objects not in REACHED that were stored at or
+     * after CUTOFF, in milliseconds since the epoch.
+     */
+    List<String> recent(Set<String> reached, long cutoff) {
+        List<String> ids = pack.recent(reached, cutoff);
+        for (String id : looseIds()) {
+            if (!reached.contains(id) && file(id).lastModified() >= cutoff) {
+                ids.add(id);
+            }
+        }
+        synchronized (this) {
+            for (String id : batch.keySet()) {
+                if (!reached.contains(id)) {
+                    ids.add(id);
+                }
+            }
+        }
+        return ids;
+    }
+
+    private List<String> looseIds() {
+        return looseIds("");
+    }
+
+    /** Returns the IDs of the loose objects that start with PREFIX. */
+    private List<String> looseIds(String prefix) {
+        List<String> ids = new ArrayList<>();
+        String[] shards;
+        if (prefix.length() >= 2) {
+            shards = new String[] {prefix.substring(0, 2)};
+        } else {
+            shards = dir.list();
+        }
+        if (shards == null) {
+            return ids;
+        }
+        for (String shard : shards) {
+            if (shard.length() != 2) {
+                continue;
+            }
+            List<String> files = plainFilenamesIn(join(dir, shard));
+            if (files == null) {
+                continue;
+            }
+            for (String file : files) {
+                String id = shard + file;
+                if (id.length() == UID_LENGTH && id.startsWith(prefix)) {
+                    ids.add(id);
+                }
+            }
+        }
+        return ids;
+    }
+}
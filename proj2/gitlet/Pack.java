@@ -0,0 +1,745 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Represents a packfile holding many objects of a Gitlet repository. The
+ * data file is append-only and the index file is a sorted table of fixed
+ * width records mapping each object ID to the offset and length of its
+ * bytes in the data file and the time it was stored. A fanout table before
+ * the records counts the objects whose ID starts with each byte or less,
+ * so a search only covers the records sharing the first byte of the ID.
+ * The index ends with the length of the data file it describes, so a
+ * reader can tell whether the two files it opened belong together.
+ *
+ * Processes writing a pack take its lock file first, so they never see
+ * each other's unfinished files.
+ */
+class Pack {
+    private static final int MAGIC = 0x4750414b; // "GPAK"
+    private static final int INDEX_MAGIC = 0x47494458; // "GIDX"
+    private static final int VERSION = 1;
+    private static final int INDEX_VERSION = 4;
+    // Version of the indexes written before they recorded the data length.
+    private static final int UNCHECKED_INDEX_VERSION = 3;
+    // Version of the indexes written before objects recorded their time.
+    private static final int UNTIMED_INDEX_VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int INDEX_HEADER_SIZE = 12;
+    private static final int FANOUT_SIZE = 256 * 4;
+    // Offset of the first record in the index.
+    private static final int RECORDS = INDEX_HEADER_SIZE + FANOUT_SIZE;
+    // Length of an object ID in binary form.
+    private static final int ID_SIZE = 20;
+    // ID, offset, length, and time of an object.
+    private static final int RECORD_SIZE = ID_SIZE + 8 + 4 + 8;
+    private static final int UNTIMED_RECORD_SIZE = ID_SIZE + 8 + 4;
+    // Largest object a record can hold, as lengths take four bytes.
+    static final long MAX_OBJECT_SIZE = Integer.MAX_VALUE;
+
+    private final File data;
+    private final File index;
+    private final File lock;
+    // Memory-mapped index, loaded the first time it is needed.
+    private MappedByteBuffer records;
+    private int count;
+    private int recordSize;
+    // Data file, opened for reading together with the index.
+    private FileChannel reader;
+    // Stamps of the index and the data file when they were opened.
+    private List<Object> indexStamp;
+    private List<Object> dataStamp;
+    // Whether load looked for a rewrite by prune to finish.
+    private boolean checked;
+    // Whether this process holds the lock file.
+    private boolean locked;
+
+    Pack(File dir, String name) {
+        data = join(dir, name + ".pack");
+        index = join(dir, name + ".idx");
+        lock = join(dir, name + ".lock");
+    }
+
+    /** Returns true if the pack contains the object with the given ID. */
+    boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /**
+     * Returns the bytes of the object with the given ID, or null if it is
+     * not in the pack.
+     */
+    byte[] read(String id) {
+        int i = find(id);
+        if (i < 0) {
+            return null;
+        }
+        long offset = offset(i);
+        ByteBuffer buffer = ByteBuffer.allocate(length(i));
+        try {
+            FileChannel channel = channel();
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw error("Truncated pack %s.", data.getName());
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Maps the bytes of the object with the given ID into memory, or
+     * returns null if it is not in the pack.
+     */
+    MappedByteBuffer map(String id) {
+        int i = find(id);
+        if (i < 0) {
+            return null;
+        }
+        try {
+            return channel().map(
+                FileChannel.MapMode.READ_ONLY, offset(i), length(i));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns the offset and length of the bytes of the object with the
+     * given ID in the data file, or null if it is not in the pack.
+     */
+    long[] locate(String id) {
+        int i = find(id);
+        if (i < 0) {
+            return null;
+        }
+        return new long[] {offset(i), length(i)};
+    }
+
+    /** Returns the data file opened with the index. */
+    synchronized FileChannel channel() throws IOException {
+        if (!load()) {
+            throw new IOException("No pack " + data.getName());
+        }
+        return reader;
+    }
+
+    /**
+     * Drops the mapped index and the open data file if another process has
+     * changed either since they were opened, so they are opened again.
+     */
+    synchronized void refresh() {
+        if (records != null
+            && (!Objects.equals(indexStamp, stamp(index))
+                || !Objects.equals(dataStamp, stamp(data)))) {
+            close();
+        }
+    }
+
+    /** Drops the mapped index and closes the data file. */
+    private synchronized void close() {
+        records = null;
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            reader = null;
+        }
+    }
+
+    /**
+     * Returns the result of ACTION, run while holding the lock file and so
+     * after any other process writing the pack has finished. The index and
+     * the data file are opened again under the lock.
+     */
+    private synchronized <T> T withLock(Supplier<T> action) {
+        if (locked) {
+            return action.get();
+        }
+        lock.getParentFile().mkdirs();
+        try (FileChannel channel = FileChannel.open(lock.toPath(),
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock held = channel.lock()) {
+            locked = true;
+            close();
+            return action.get();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            locked = false;
+        }
+    }
+
+    /**
+     * Runs ACTION while holding the lock file if no other process holds
+     * it, and does nothing otherwise.
+     */
+    private synchronized void ifUnlocked(Runnable action) {
+        if (locked) {
+            action.run();
+            return;
+        }
+        if (!lock.getParentFile().isDirectory()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(lock.toPath(),
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock held = channel.tryLock()) {
+            if (held != null) {
+                action.run();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Copies COUNT bytes of SOURCE starting at POSITION to TARGET, letting
+     * the operating system move the bytes where it can.
+     */
+    static void transfer(
+        FileChannel source,
+        long position,
+        long count,
+        WritableByteChannel target) throws IOException {
+        long copied = 0;
+        while (copied < count) {
+            copied += source.transferTo(
+                position + copied, count - copied, target);
+        }
+    }
+
+    /** Returns the IDs of all the objects in the pack in sorted order. */
+    List<String> ids() {
+        if (!load()) {
+            return Collections.emptyList();
+        }
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i += 1) {
+            ids.add(id(i));
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the IDs in the pack that start with the given prefix in
+     * sorted order, stopping after LIMIT of them.
+     */
+    List<String> findPrefix(String prefix, int limit) {
+        List<String> ids = new ArrayList<>();
+        if (prefix.isEmpty() || !isHex(prefix)
+            || prefix.length() > 2 * ID_SIZE || !load()) {
+            return ids;
+        }
+        String padded = prefix + "0".repeat(2 * ID_SIZE - prefix.length());
+        byte[] key = toBytes(padded);
+        int first = key[0] & 0xff;
+        // A single digit prefix covers the sixteen bytes that it begins.
+        int last = prefix.length() < 2 ? first | 0xf : first;
+        int lo = first == 0 ? 0 : fanout(first - 1);
+        int hi = fanout(last);
+        // Finds the first record that is not less than the padded prefix.
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < count && ids.size() < limit; i += 1) {
+            String id = id(i);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    /** Returns the number of IDs whose first byte is at most B. */
+    private int fanout(int b) {
+        return records.getInt(INDEX_HEADER_SIZE + 4 * b);
+    }
+
+    /**
+     * Appends the given loose object files that are not already packed to
+     * the data file, then rewrites the index to cover them. The index is
+     * replaced atomically, so a crash leaves the previous pack readable.
+     * Objects larger than MAX_OBJECT_SIZE cannot be packed.
+     */
+    void append(Map<String, File> objects) {
+        for (Map.Entry<String, File> object : objects.entrySet()) {
+            if (object.getValue().length() > MAX_OBJECT_SIZE) {
+                throw error("Object %s is too large to pack.", object.getKey());
+            }
+        }
+        append(objects, Pack::copy, File::lastModified);
+    }
+
+    /**
+     * Appends the given stored objects that are not already packed, like
+     * the loose files of append.
+     */
+    void appendContents(Map<String, byte[]> objects) {
+        long now = System.currentTimeMillis();
+        append(objects, Pack::write, bytes -> now);
+    }
+
+    /** Copies one object into a channel at a position. */
+    private interface Copier<T> {
+        long copy(T object, FileChannel channel, long position)
+            throws IOException;
+    }
+
+    /**
+     * Appends OBJECTS with COPIER, recording the time each was stored as
+     * given by TIME.
+     */
+    private <T> void append(
+        Map<String, T> objects,
+        Copier<T> copier,
+        ToLongFunction<T> time) {
+        withLock(() -> {
+            appendLocked(objects, copier, time);
+            return null;
+        });
+    }
+
+    private <T> void appendLocked(
+        Map<String, T> objects,
+        Copier<T> copier,
+        ToLongFunction<T> time) {
+        Map<String, long[]> entries = entries();
+        long end;
+        try (FileChannel channel = FileChannel.open(data.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            end = channel.size();
+            if (end == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                end += channel.write(header, end);
+            }
+            for (Map.Entry<String, T> entry : objects.entrySet()) {
+                if (entries.containsKey(entry.getKey())) {
+                    continue;
+                }
+                long length = copier.copy(entry.getValue(), channel, end);
+                entries.put(entry.getKey(), new long[] {
+                    end, length, time.applyAsLong(entry.getValue())});
+                end += length;
+            }
+            channel.force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        writeIndex(entries, end, index);
+        close();
+    }
+
+    /** Returns the offset, length, and time of each object by ID. */
+    private Map<String, long[]> entries() {
+        Map<String, long[]> entries = new TreeMap<>();
+        if (load()) {
+            for (int i = 0; i < count; i += 1) {
+                entries.put(id(i), new long[] {offset(i), length(i), time(i)});
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the IDs of the objects not in REACHED that were stored at or
+     * after CUTOFF, in milliseconds since the epoch.
+     */
+    List<String> recent(Set<String> reached, long cutoff) {
+        List<String> ids = new ArrayList<>();
+        if (!load()) {
+            return ids;
+        }
+        for (int i = 0; i < count; i += 1) {
+            if (time(i) >= cutoff && !reached.contains(id(i))) {
+                ids.add(id(i));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Copies the contents of FILE into CHANNEL at the given position.
+     * Returns the number of bytes copied.
+     */
+    private static long copy(File file, FileChannel channel, long position)
+        throws IOException {
+        try (FileChannel in = FileChannel.open(file.toPath())) {
+            long size = in.size();
+            long copied = 0;
+            while (copied < size) {
+                copied += channel.transferFrom(
+                    in.position(copied), position + copied, size - copied);
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Writes BYTES into CHANNEL at the given position. Returns the number
+     * of bytes written.
+     */
+    private static long write(byte[] bytes, FileChannel channel, long position)
+        throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+        return bytes.length;
+    }
+
+    /**
+     * Rewrites the pack without the objects not in KEEP that were stored
+     * before CUTOFF, in milliseconds since the epoch, as newer ones may
+     * still be in use. Objects keep the time they were first stored, so
+     * packing again does not make garbage new. Returns the number of bytes
+     * freed.
+     *
+     * The new data file and index are written beside the old ones under
+     * the lock and then renamed over them, data file first. A reader that
+     * opens the new data file with the old index sees that their lengths
+     * differ and waits for the lock. A crash before the data file is
+     * renamed leaves the old pack, and one after it is finished by load.
+     */
+    long prune(Set<String> keep, long cutoff) {
+        if (!index.isFile()) {
+            return 0;
+        }
+        return withLock(() -> pruneLocked(keep, cutoff));
+    }
+
+    private long pruneLocked(Set<String> keep, long cutoff) {
+        if (!load()) {
+            return 0;
+        }
+        List<Integer> kept = new ArrayList<>();
+        for (int i = 0; i < count; i += 1) {
+            if (keep.contains(id(i)) || time(i) >= cutoff) {
+                kept.add(i);
+            }
+        }
+        if (kept.size() == count) {
+            return 0;
+        }
+        long before = data.length() + index.length();
+        Map<String, long[]> entries = new TreeMap<>();
+        long end;
+        try (FileChannel channel = FileChannel.open(newData().toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            end = channel.write(header);
+            for (int i : kept) {
+                transfer(reader, offset(i), length(i), channel);
+                entries.put(id(i), new long[] {end, length(i), time(i)});
+                end += length(i);
+            }
+            channel.force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        writeIndex(entries, end, newIndex());
+        close();
+        try {
+            Files.move(newData().toPath(), data.toPath(),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+            Files.move(newIndex().toPath(), index.toPath(),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return before - data.length() - index.length();
+    }
+
+    private File newData() {
+        return new File(data.getPath() + ".new");
+    }
+
+    private File newIndex() {
+        return new File(index.getPath() + ".new");
+    }
+
+    /**
+     * Finishes or drops a rewrite by prune that a crash interrupted, which
+     * only runs under the lock, so no prune is still writing. A new data
+     * file was never renamed and is dropped. A new index is moved into
+     * place only if it describes the data file now in place, which means
+     * the crash came between the two renames.
+     */
+    private void finishPrune() {
+        newData().delete();
+        if (!newIndex().isFile()) {
+            return;
+        }
+        ByteBuffer pending;
+        try (FileChannel channel = FileChannel.open(newIndex().toPath())) {
+            pending = channel.map(
+                FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (dataLength(pending) != data.length()) {
+            newIndex().delete();
+            return;
+        }
+        try {
+            Files.move(newIndex().toPath(), index.toPath(),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Writes the sorted index for the given entries, which lie in a data
+     * file of DATALENGTH bytes, to TARGET.
+     */
+    private static void writeIndex(
+        Map<String, long[]> entries,
+        long dataLength,
+        File target) {
+        ByteBuffer buffer = ByteBuffer.allocate(
+            RECORDS + entries.size() * RECORD_SIZE + 8);
+        buffer.putInt(INDEX_MAGIC).putInt(INDEX_VERSION)
+            .putInt(entries.size());
+        int[] fanout = new int[256];
+        for (String id : entries.keySet()) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        int total = 0;
+        for (int b = 0; b < 256; b += 1) {
+            total += fanout[b];
+            buffer.putInt(total);
+        }
+        for (Map.Entry<String, long[]> entry : entries.entrySet()) {
+            buffer.put(toBytes(entry.getKey()));
+            buffer.putLong(entry.getValue()[0]);
+            buffer.putInt((int) entry.getValue()[1]);
+            buffer.putLong(entry.getValue()[2]);
+        }
+        buffer.putLong(dataLength);
+        File temp = new File(target.getPath() + ".tmp");
+        writeContents(temp, (Object) buffer.array());
+        try {
+            Files.move(temp.toPath(), target.toPath(),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns the length of the data file the index in BUFFER describes,
+     * or -1 if the index is from before it was recorded.
+     */
+    private static long dataLength(ByteBuffer buffer) {
+        if (buffer.capacity() < RECORDS + 8
+            || buffer.getInt(4) != INDEX_VERSION) {
+            return -1;
+        }
+        return buffer.getLong(buffer.capacity() - 8);
+    }
+
+    /**
+     * Maps the index into memory and opens the data file, if the pack
+     * exists. Returns false if the pack has no index yet. If the data file
+     * is shorter than the index says, a prune is between its renames or
+     * crashed there, so both are opened again under the lock.
+     */
+    private synchronized boolean load() {
+        if (records != null) {
+            return true;
+        }
+        if (!checked) {
+            ifUnlocked(this::finishPrune);
+            checked = true;
+        }
+        if (!open()) {
+            return false;
+        }
+        if (!matches()) {
+            boolean opened = withLock(() -> {
+                finishPrune();
+                return open();
+            });
+            if (!opened) {
+                return false;
+            }
+            if (!matches()) {
+                throw error("Corrupt pack %s.", data.getName());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Maps the index and opens the data file. Returns false if there is
+     * no index.
+     */
+    private boolean open() {
+        close();
+        if (!index.isFile()) {
+            return false;
+        }
+        indexStamp = stamp(index);
+        dataStamp = stamp(data);
+        try (FileChannel channel = FileChannel.open(index.toPath())) {
+            records = channel.map(
+                FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            reader = FileChannel.open(data.toPath());
+        } catch (IOException excp) {
+            close();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        int version = records.getInt(4);
+        if (records.getInt(0) != INDEX_MAGIC || version != INDEX_VERSION
+            && version != UNCHECKED_INDEX_VERSION
+            && version != UNTIMED_INDEX_VERSION) {
+            throw error("Corrupt pack index %s.", index.getName());
+        }
+        recordSize = version == UNTIMED_INDEX_VERSION
+            ? UNTIMED_RECORD_SIZE : RECORD_SIZE;
+        count = records.getInt(8);
+        return true;
+    }
+
+    /**
+     * Returns true if the data file is at least as long as the index says,
+     * as it only grows until a prune replaces it.
+     */
+    private boolean matches() {
+        try {
+            return reader.size() >= dataLength(records);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns the position of the given ID in the index using binary
+     * search, or -1 if it is not present.
+     */
+    private int find(String id) {
+        if (id.length() != 2 * ID_SIZE || !isHex(id) || !load()) {
+            return -1;
+        }
+        byte[] key = toBytes(id);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout(first - 1);
+        int hi = fanout(first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compares the ID of the I-th record with KEY as unsigned bytes. */
+    private int compare(int i, byte[] key) {
+        int base = RECORDS + i * recordSize;
+        for (int j = 0; j < ID_SIZE; j += 1) {
+            int cmp = Byte.compareUnsigned(records.get(base + j), key[j]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private String id(int i) {
+        byte[] bytes = new byte[ID_SIZE];
+        records.get(RECORDS + i * recordSize, bytes);
+        return toHex(bytes);
+    }
+
+    private long offset(int i) {
+        return records.getLong(RECORDS + i * recordSize + ID_SIZE);
+    }
+
+    private int length(int i) {
+        return records.getInt(RECORDS + i * recordSize + ID_SIZE + 8);
+    }
+
+    /**
+     * Returns the time the I-th object was stored. An index from before
+     * times were recorded dates every object to the data file.
+     */
+    private long time(int i) {
+        if (recordSize == UNTIMED_RECORD_SIZE) {
+            return data.lastModified();
+        }
+        return records.getLong(RECORDS + i * recordSize + ID_SIZE + 12);
+    }
+
+    private static boolean isHex(String id) {
+        for (int i = 0; i < id.length(); i += 1) {
+            if (Character.digit(id.charAt(i), 16) < 0
+                || Character.isUpperCase(id.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Converts a hexadecimal ID to its binary form. */
+    static byte[] toBytes(String id) {
+        byte[] bytes = new byte[id.length() / 2];
+        for (int i = 0; i < bytes.length; i += 1) {
+            bytes[i] = (byte) Integer.parseInt(
+                id.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    /** Converts a binary ID to its hexadecimal form. */
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
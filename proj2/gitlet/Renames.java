@@ -0,0 +1,234 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Finds the added files of a change that are renames or copies of its
+ * deleted files. Files with the same blob ID are paired first, by a hash
+ * lookup. The rest are compared by MinHash signatures of their lines,
+ * which estimate the share of lines two files have in common. Only pairs
+ * that agree on a whole band of their signatures are compared, so files
+ * with nothing in common are never paired up and the search does not
+ * grow with the product of the deleted and added files.
+ */
+class Renames {
+    // Number of hashes in a signature.
+    private static final int HASHES = 64;
+    // Number of hashes in a band.
+    private static final int ROWS = 2;
+    private static final long[] SEEDS = new long[HASHES];
+    static {
+        Random random = new Random(HASHES);
+        for (int i = 0; i < HASHES; i += 1) {
+            SEEDS[i] = random.nextLong();
+        }
+    }
+    // Empty files are alike without being renames of each other.
+    private static final String EMPTY_ID = new Blob(new byte[0]).getId();
+
+    private Renames() {
+    }
+
+    /** An added file that was renamed or copied from a deleted file. */
+    static class Rename {
+        final String source;
+        final String target;
+        // Estimated percent of lines the files have in common.
+        final int similarity;
+        // Whether the source was renamed to another file already.
+        final boolean copy;
+
+        Rename(String from, String to, int similar, boolean copied) {
+            source = from;
+            target = to;
+            similarity = similar;
+            copy = copied;
+        }
+    }
+
+    /**
+     * Returns the renames and copies among CHANGES, which maps each file
+     * to its blob IDs before and after, keyed by the added file.
+     */
+    static Map<String, Rename> find(Map<String, String[]> changes) {
+        return find(changes, file -> Diff.Lines.of(changes.get(file)[1]));
+    }
+
+    /**
+     * Returns the renames and copies among CHANGES, reading the lines of
+     * an added file with ADDED.
+     */
+    static Map<String, Rename> find(
+        Map<String, String[]> changes,
+        Function<String, Diff.Lines> added) {
+        Map<String, Rename> renames = new TreeMap<>();
+        // Maps the blob ID of each deleted file to the files.
+        Map<String, List<String>> deleted = new HashMap<>();
+        List<String> targets = new ArrayList<>();
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            String[] blobIds = change.getValue();
+            if (blobIds[1] == null && !EMPTY_ID.equals(blobIds[0])) {
+                deleted.computeIfAbsent(blobIds[0], id -> new ArrayList<>())
+                    .add(change.getKey());
+            } else if (blobIds[0] == null && !EMPTY_ID.equals(blobIds[1])) {
+                targets.add(change.getKey());
+            }
+        }
+        Set<String> used = new HashSet<>();
+        List<String> unmatched = new ArrayList<>();
+        for (String target : targets) {
+            List<String> sources = deleted.get(changes.get(target)[1]);
+            if (sources == null) {
+                unmatched.add(target);
+                continue;
+            }
+            String source = sources.stream().filter(s -> !used.contains(s))
+                .findFirst().orElse(null);
+            if (source == null) {
+                renames.put(target,
+                    new Rename(sources.get(0), target, 100, true));
+            } else {
+                used.add(source);
+                renames.put(target, new Rename(source, target, 100, false));
+            }
+        }
+        int threshold = Config.getInt(Config.RENAME_THRESHOLD);
+        List<String> sources = new ArrayList<>();
+        for (List<String> files : deleted.values()) {
+            for (String file : files) {
+                if (!used.contains(file)) {
+                    sources.add(file);
+                }
+            }
+        }
+        if (threshold < 100 && !sources.isEmpty() && !unmatched.isEmpty()) {
+            sources.sort(null);
+            findSimilar(changes, sources, unmatched, added, threshold,
+                renames);
+        }
+        return renames;
+    }
+
+    /**
+     * Adds to RENAMES the pairs of SOURCES and TARGETS whose signatures
+     * agree in at least THRESHOLD percent of their hashes, the most
+     * similar first, each file in at most one pair.
+     */
+    private static void findSimilar(
+        Map<String, String[]> changes,
+        List<String> sources,
+        List<String> targets,
+        Function<String, Diff.Lines> added,
+        int threshold,
+        Map<String, Rename> renames) {
+        long[][] sourceSignatures = new long[sources.size()][];
+        // Maps each band of a signature to the sources that have it.
+        Map<Long, List<Integer>> bands = new HashMap<>();
+        for (int i = 0; i < sources.size(); i += 1) {
+            Diff.Lines lines =
+                Diff.Lines.of(changes.get(sources.get(i))[0]);
+            sourceSignatures[i] = signature(lines);
+            if (sourceSignatures[i] == null) {
+                continue;
+            }
+            for (int band = 0; band < HASHES / ROWS; band += 1) {
+                bands.computeIfAbsent(band(sourceSignatures[i], band),
+                    key -> new ArrayList<>()).add(i);
+            }
+        }
+        // Each pair is the source, the target, and the matching hashes.
+        List<int[]> pairs = new ArrayList<>();
+        for (int j = 0; j < targets.size(); j += 1) {
+            long[] signature = signature(added.apply(targets.get(j)));
+            if (signature == null) {
+                continue;
+            }
+            Set<Integer> compared = new HashSet<>();
+            for (int band = 0; band < HASHES / ROWS; band += 1) {
+                List<Integer> candidates = bands.get(band(signature, band));
+                if (candidates == null) {
+                    continue;
+                }
+                for (int i : candidates) {
+                    if (!compared.add(i)) {
+                        continue;
+                    }
+                    int matches = 0;
+                    for (int k = 0; k < HASHES; k += 1) {
+                        if (signature[k] == sourceSignatures[i][k]) {
+                            matches += 1;
+                        }
+                    }
+                    if (matches * 100 >= threshold * HASHES) {
+                        pairs.add(new int[] {i, j, matches});
+                    }
+                }
+            }
+        }
+        pairs.sort((p, q) -> p[2] != q[2] ? q[2] - p[2]
+            : p[1] != q[1] ? p[1] - q[1] : p[0] - q[0]);
+        boolean[] sourceUsed = new boolean[sources.size()];
+        boolean[] targetUsed = new boolean[targets.size()];
+        for (int[] pair : pairs) {
+            if (sourceUsed[pair[0]] || targetUsed[pair[1]]) {
+                continue;
+            }
+            sourceUsed[pair[0]] = true;
+            targetUsed[pair[1]] = true;
+            String target = targets.get(pair[1]);
+            renames.put(target, new Rename(sources.get(pair[0]), target,
+                pair[2] * 100 / HASHES, false));
+        }
+    }
+
+    /**
+     * Returns the MinHash signature of LINES: for each seed, the least
+     * hash of a line mixed with it. Repeated lines are told apart by their
+     * count so far. Returns null for a file with no lines.
+     */
+    private static long[] signature(Diff.Lines lines) {
+        if (lines.size() == 0) {
+            return null;
+        }
+        long[] signature = new long[HASHES];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (int i = 0; i < lines.size(); i += 1) {
+            int hash = lines.hash(i);
+            int count = counts.merge(hash, 1, Integer::sum);
+            long key = mix(((long) hash << 32) | count);
+            for (int k = 0; k < HASHES; k += 1) {
+                long value = mix(key ^ SEEDS[k]);
+                if (value < signature[k]) {
+                    signature[k] = value;
+                }
+            }
+        }
+        return signature;
+    }
+
+    /** Returns a key for the given band of SIGNATURE. */
+    private static long band(long[] signature, int band) {
+        long key = band;
+        for (int k = band * ROWS; k < (band + 1) * ROWS; k += 1) {
+            key = mix(key ^ signature[k]);
+        }
+        return key;
+    }
+
+    /** Returns the bits of X well mixed, as in SplitMix64. */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+}
@@ -2,14 +2,22 @@ package gitlet;
 
 import static gitlet.Utils.*;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Map;
 import java.util.Set;
-import java.util.HashSet;
-import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Queue;
-import java.util.LinkedList;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Represents a Gitlet repository.
@@ -21,6 +29,11 @@ public class Repository {
     // The .gitlet directory.
     public static final File GITLET = join(CWD, ".gitlet");
     private static final String DEFAULT_BRANCH = "master";
+    // Directory of the files being written by a checkout.
+    private static final File CHECKOUT = join(GITLET, "checkout");
+    // Version of the repository format, kept in the format file.
+    private static final File FORMAT = join(GITLET, "format");
+    private static final int FORMAT_VERSION = 1;
 
     /**
      * Creates a new Gitlet version-control system in the current directory.
@@ -31,12 +44,45 @@ public class Repository {
         Commit.COMMITS.mkdir();
         Branch.BRANCHES.mkdir();
         Blob.BLOBS.mkdir();
+        Blob.CHUNKS.mkdir();
+        Tree.TREES.mkdir();
         StagingArea stage = new StagingArea();
         stage.save();
         Commit commit = new Commit();
         commit.save();
+        MessageIndex messages = new MessageIndex();
+        messages.add(commit);
+        messages.save();
         Branch.setId(DEFAULT_BRANCH, commit.getId());
         HEAD.setBranch(DEFAULT_BRANCH);
+        Journal.write(FORMAT, FORMAT_VERSION + "\n");
+        Journal.commit();
+    }
+
+    /**
+     * Exits unless the repository is in the format this version of Gitlet
+     * reads. Repositories from before the format was recorded, which
+     * stored serialized commits, count as too old.
+     */
+    static void validateFormat() {
+        int format = 0;
+        if (FORMAT.isFile()) {
+            try {
+                format = Integer.parseInt(
+                    readContentsAsString(FORMAT).trim());
+            } catch (NumberFormatException excp) {
+                format = Integer.MAX_VALUE;
+            }
+        }
+        if (format < FORMAT_VERSION) {
+            String error = "The repository format is too old for this "
+                + "version of Gitlet.";
+            Main.exit(error);
+        } else if (format > FORMAT_VERSION) {
+            String error = "The repository format is too new for this "
+                + "version of Gitlet.";
+            Main.exit(error);
+        }
     }
 
     private static void validateRepo() {
@@ -49,12 +95,12 @@ public class Repository {
 
     /** Returns the name of the current branch. */
     private static String getBranch() {
-        return HEAD.getBranch();
+        return Session.getBranch();
     }
 
     /** Returns the ID of the current commit in the current branch. */
     private static String getId() {
-        return Branch.getId(getBranch());
+        return Session.getId(getBranch());
     }
 
     /** Returns the current commit in the current branch. */
@@ -67,9 +113,26 @@ public class Repository {
         return Commit.load(id);
     }
 
+    /**
+     * Returns the full ID of the commit whose ID starts with the given
+     * prefix. Exits if no commit or more than one commit matches.
+     */
+    private static String resolveId(String prefix) {
+        List<String> ids = Commit.resolve(prefix);
+        if (ids.isEmpty()) {
+            String error = "No commit with that id exists.";
+            Main.exit(error);
+        }
+        if (ids.size() > 1) {
+            String error = "Commit id " + prefix + " is ambiguous.";
+            Main.exit(error);
+        }
+        return ids.get(0);
+    }
+
     /** Returns a list of all commit IDs. */
     private static List<String> getIds() {
-        return Arrays.asList(Commit.COMMITS.list());
+        return Commit.ids();
     }
 
     /** Returns a list of all the branches of the repository. */
@@ -79,12 +142,12 @@ public class Repository {
 
     /** Returns true if the file is tracked. */
     private static boolean isTracked(String file) {
-        return getCommit().getBlobs().containsKey(file);
+        return getCommit().getBlobId(file) != null;
     }
 
     /** Returns true if the file is staged for addition. */
     private static boolean isStaged(String file) {
-        return StagingArea.load().getAddition().containsKey(file);
+        return Session.getStage().getAddition().containsKey(file);
     }
 
     /**
@@ -108,9 +171,9 @@ public class Repository {
             String error = "File does not exist.";
             Main.exit(error);
         }
-        Blob blob = new Blob(readContents(file));
+        Blob blob = new Blob(file);
         String blobId = blob.getId();
-        StagingArea stage = StagingArea.load();
+        StagingArea stage = Session.getStage();
         Map<String, String> addition = stage.getAddition();
         /*
          * If the current working version of the file is identical to the
@@ -128,8 +191,10 @@ public class Repository {
         }
         // File is no longer staged for removal if it was.
         stage.getRemoval().remove(fileName);
-        blob.save();
-        stage.save();
+        // Stores the blob as a delta against the committed version if it can.
+        blob.save(getCommit().getBlobId(fileName));
+        Session.stageChanged();
+        Session.getIndex().update(file, blobId);
     }
 
     /** 
@@ -144,7 +209,7 @@ public class Repository {
         String message,
         String firstParent,
         String secondParent) {
-        StagingArea stage = StagingArea.load();
+        StagingArea stage = Session.getStage();
         String error;
         if (stage.isEmpty()) {
             error = "No changes added to the commit.";
@@ -160,22 +225,17 @@ public class Repository {
         } else {
             commit = new Commit(message, firstParent, secondParent);
         }
-        Map<String, String> blobs = commit.getBlobs();
-        Map<String, String> addition = stage.getAddition();
-        // Updates the files staged for addition.
-        for (Map.Entry<String, String> entry : addition.entrySet()) {
-            blobs.put(entry.getKey(), entry.getValue());
-        }
-        // Updates the files staged for removal.
-        for (String file : stage.getRemoval()) {
-            blobs.remove(file);
-        }
+        // Updates the files staged for addition and removal.
+        commit.update(stage.getAddition(), stage.getRemoval());
         // The new commit becomes the current commit.
-        Branch.setId(getBranch(), commit.getId());
+        Session.setId(getBranch(), commit.getId());
         // The staging area is cleared after a commit.
         stage.clear();
-        stage.save();
+        Session.stageChanged();
         commit.save();
+        MessageIndex messages = MessageIndex.forUpdate();
+        messages.add(commit);
+        messages.save();
     }
 
     /** 
@@ -185,7 +245,7 @@ public class Repository {
      */
     public static void rm(String file) {
         Commit current = getCommit();
-        StagingArea stage = StagingArea.load();
+        StagingArea stage = Session.getStage();
         Map<String, String> addition = stage.getAddition();
         boolean tracked = isTracked(file);
         boolean staged = isStaged(file);
@@ -202,44 +262,63 @@ public class Repository {
             stage.getRemoval().add(file);
             restrictedDelete(file);
         }
-        stage.save();
+        Session.stageChanged();
     }
 
     /**
      * Displays information about each commit in reverse chronological order
      * until the initial commit following the first parent.
      */
-    public static void log() {
-        String id = getId();
-        while (id != null) {
-            Commit commit = getCommit(id);
-            System.out.println(commit);
-            id = commit.getfirstParent();
+    public static void log(LogWriter out) {
+        try (out) {
+            String id = getId();
+            while (id != null && !out.isFull()) {
+                Commit commit = getCommit(id);
+                if (out.isTooOld(commit)) {
+                    // Earlier commits on the first-parent line are older.
+                    break;
+                }
+                out.write(commit);
+                id = commit.getfirstParent();
+            }
         }
     }
 
     /** Displays information about all commits. */
-    public static void globalLog() {
-        for (String id : getIds()) {
-            Commit commit = getCommit(id);
-            System.out.println(commit);
+    public static void globalLog(LogWriter out) {
+        try (out) {
+            for (String id : getIds()) {
+                if (out.isFull()) {
+                    break;
+                }
+                out.write(getCommit(id));
+            }
         }
     }
 
     /** Prints the IDs of all commits that have the given commit message. */
     public static void find(String message) {
-        boolean found = false;
-        for (String id : getIds()) {
-            Commit commit = getCommit(id);
-            if (message.equals(commit.getMessage())) {
-                found = true;
-                System.out.println(commit.getId());
-            }
-        }
-        if (!found) {
+        printFound(MessageIndex.load().find(message));
+    }
+
+    /**
+     * Prints out the IDs of all commits whose commit message contains the
+     * given word, ignoring case.
+     */
+    public static void findToken(String word) {
+        printFound(MessageIndex.load().findToken(word));
+    }
+
+    private static void printFound(Set<String> ids) {
+        if (ids.isEmpty()) {
             String error = "Found no commit with that message.";
             Main.exit(error);
         }
+        StringBuilder out = new StringBuilder();
+        for (String id : ids) {
+            out.append(id).append('\n');
+        }
+        System.out.print(out);
     }
 
     /**
@@ -268,7 +347,7 @@ public class Repository {
     /** Displays the staged files for addition and removal. */
     private static void printStage() {
         System.out.println("=== Staged Files ===");
-        StagingArea stage = StagingArea.load();
+        StagingArea stage = Session.getStage();
         for (String file : stage.getAddition().keySet()) {
             System.out.println(file);
         }
@@ -283,17 +362,18 @@ public class Repository {
     /** Displays the modified files not staged for commit. */
     private static void printModifiedFiles() {
         System.out.println("=== Modifications Not Staged For Commit ===");
-        StagingArea stage = StagingArea.load();
+        StagingArea stage = Session.getStage();
+        Map<String, String> addition = stage.getAddition();
         Map<String, String> blobs = getCommit().getBlobs();
+        // Files unchanged since they were last hashed are not read again.
+        Index index = Session.getIndex();
         for (String file : blobs.keySet()) {
-            File currentFile = join(CWD, file);
             boolean modified = false;
             boolean deleted = false;
-            boolean tracked = isTracked(file);
-            boolean staged = isStaged(file);
-            if (currentFile.exists()) {
-                Blob blob = new Blob(readContents(currentFile));
-                String blobId = blob.getId();
+            boolean tracked = blobs.containsKey(file);
+            boolean staged = addition.containsKey(file);
+            String blobId = index.getBlobId(join(CWD, file));
+            if (blobId != null) {
                 /*
                  * Tracked in the current commit, changed in the working
                  * directory, but not staged.
@@ -306,10 +386,7 @@ public class Repository {
                  * the working directory.
                  */
                 if (staged) {
-                    Map<String, String> addition = stage.getAddition();
-                    File stagedFile = join(Blob.BLOBS, addition.get(file));
-                    Blob stagedBlob = new Blob(readContents(stagedFile));
-                    modified = !blobId.equals(stagedBlob.getId());
+                    modified = !blobId.equals(addition.get(file));
                 }
             } else {
                 /*
@@ -367,19 +444,14 @@ public class Repository {
      * file is not staged.
      */
     private static void checkoutFile(String id, String file) {
-        Commit commit = getCommit(id);
+        Commit commit = getCommit(resolveId(id));
         String error;
-        if (commit == null) {
-            error = "No commit with that id exists.";
-            Main.exit(error);
-        }
         String blobId = commit.getBlobId(file);
         if (blobId == null) {
             error = "File does not exist in that commit.";
             Main.exit(error);
         }
-        byte[] contents = readContents(join(Blob.BLOBS, blobId));
-        writeContents(join(CWD, file), (Object) contents);
+        Blob.checkout(blobId, join(CWD, file));
     }
 
     /** 
@@ -388,9 +460,8 @@ public class Repository {
      * that are already there if they exist.
      */
     private static void checkoutBranch(String branch) {
-        File branchFile = join(Branch.BRANCHES, branch);
         String error;
-        if (!branchFile.exists()) {
+        if (Session.getId(branch) == null) {
             error = "No such branch exists.";
             Main.exit(error);
         }
@@ -398,13 +469,13 @@ public class Repository {
             error = "No need to checkout the current branch.";
             Main.exit(error);
         }
-        checkoutCommit(Branch.getId(branch));
+        checkoutCommit(Session.getId(branch));
         // The given branch is now the current branch.
-        HEAD.setBranch(branch);
+        Session.setBranch(branch);
     }
 
     private static void checkoutCommit(String id) {
-        StagingArea stage = StagingArea.load();
+        StagingArea stage = Session.getStage();
         Map<String, String> blobs = getCommit(id).getBlobs();
         Set<String> fileNames = blobs.keySet();
         for (String fileName : fileNames) {
@@ -422,12 +493,7 @@ public class Repository {
             }
         }
         // Checks out all the files in the given commit.
-        for (String fileName : fileNames) {
-            File file = join(CWD, fileName);
-            String blobId = blobs.get(fileName);
-            byte[] contents = readContents(join(Blob.BLOBS, blobId));
-            writeContents(file, (Object) contents);
-        }
+        checkoutFiles(blobs);
         /*
          * Deletes files tracked in the current branch that are not present in
          * the checked out branch.
@@ -438,7 +504,114 @@ public class Repository {
             }
         }
         stage.clear();
-        stage.save();
+        Session.stageChanged();
+    }
+
+    /**
+     * Puts the given files in the working directory. The blobs are written
+     * to temporary files by a pool of worker threads, one per core, and
+     * only moved into place once all of them have been written. Each file
+     * replaced is kept aside until every move is done, so a failed write or
+     * move leaves the working directory unchanged.
+     */
+    private static void checkoutFiles(Map<String, String> blobs) {
+        for (String fileName : blobs.keySet()) {
+            if (join(CWD, fileName).isDirectory()) {
+                String error = "There is a directory in the way; "
+                    + "delete it first.";
+                Main.exit(error);
+            }
+        }
+        CHECKOUT.mkdir();
+        Map<String, File> temps = new TreeMap<>();
+        for (String fileName : blobs.keySet()) {
+            temps.put(fileName, join(CHECKOUT, sha1(fileName)));
+        }
+        int threads = Math.max(1, Math.min(
+            blobs.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> writes = new ArrayList<>();
+        for (Map.Entry<String, File> entry : temps.entrySet()) {
+            String blobId = blobs.get(entry.getKey());
+            File temp = entry.getValue();
+            writes.add(pool.submit(() -> Blob.checkout(blobId, temp)));
+        }
+        pool.shutdown();
+        String error = null;
+        for (Future<?> write : writes) {
+            try {
+                write.get();
+            } catch (ExecutionException excp) {
+                error = "Could not check out the files; "
+                    + "the working directory is unchanged.";
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                error = "Could not check out the files; "
+                    + "the working directory is unchanged.";
+                break;
+            }
+        }
+        if (error == null) {
+            error = moveFiles(temps);
+        }
+        if (error == null) {
+            Index index = Session.getIndex();
+            for (String fileName : temps.keySet()) {
+                index.update(join(CWD, fileName), blobs.get(fileName));
+            }
+        }
+        pool.shutdownNow();
+        for (File file : CHECKOUT.listFiles()) {
+            file.delete();
+        }
+        if (error != null) {
+            Main.exit(error);
+        }
+    }
+
+    /**
+     * Moves each temporary file in TEMPS over the working file it is mapped
+     * from, keeping the files replaced beside the temporary ones. Returns
+     * null if all the moves succeed, and otherwise puts the replaced files
+     * back and returns the error.
+     */
+    private static String moveFiles(Map<String, File> temps) {
+        List<String> moved = new ArrayList<>();
+        try {
+            for (Map.Entry<String, File> entry : temps.entrySet()) {
+                Path file = join(CWD, entry.getKey()).toPath();
+                Path temp = entry.getValue().toPath();
+                if (Files.exists(file, LinkOption.NOFOLLOW_LINKS)) {
+                    Files.move(file, original(temp),
+                        StandardCopyOption.ATOMIC_MOVE);
+                }
+                moved.add(entry.getKey());
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            }
+            return null;
+        } catch (IOException excp) {
+            for (String fileName : moved) {
+                Path file = join(CWD, fileName).toPath();
+                Path original = original(temps.get(fileName).toPath());
+                try {
+                    if (Files.exists(original, LinkOption.NOFOLLOW_LINKS)) {
+                        Files.move(original, file,
+                            StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                    } else {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (IOException restoreExcp) {
+                    // Puts back as many of the other files as it can.
+                }
+            }
+            return excp.getMessage();
+        }
+    }
+
+    /** Returns where the file replaced by TEMP is kept during a checkout. */
+    private static Path original(Path temp) {
+        return temp.resolveSibling(temp.getFileName() + ".orig");
     }
 
     /**
@@ -446,27 +619,26 @@ public class Repository {
      * head commit.
      */
     public static void branch(String branch) {
-        if (join(Branch.BRANCHES, branch).exists()) {
+        if (Session.getId(branch) != null) {
             String error = "A branch with that name already exists.";
             Main.exit(error);
         }
-        Branch.setId(branch, getId());
+        Session.setId(branch, getId());
     }
 
     /** Deletes the branch with the given name. */
     public static void rmBranch(String branch) {
-        File branchFile = join(Branch.BRANCHES, branch);
         String error;
         validateBranch(branch);
         if (branch.equals(getBranch())) {
             error = "Cannot remove the current branch.";
             Main.exit(error);
         }
-        branchFile.delete();
+        Session.removeBranch(branch);
     }
 
     private static void validateBranch(String branch) {
-        if (!join(Branch.BRANCHES, branch).exists()) {
+        if (Session.getId(branch) == null) {
             String error = "A branch with that name does not exist.";
             Main.exit(error);
         }
@@ -482,34 +654,227 @@ public class Repository {
      * head to that commit node.
      */
     public static void reset(String id) {
-        if (!getIds().contains(id)) {
-            String error = "No commit with that id exists.";
+        id = resolveId(id);
+        checkoutCommit(id);
+        Session.setId(getBranch(), id);
+    }
+
+    /**
+     * Displays the changes in the working directory that are not staged,
+     * as a unified diff.
+     */
+    public static void diff() {
+        diffWorkingFiles(getStagedBlobs());
+    }
+
+    /**
+     * Displays the changes from the commit with the given ID to the working
+     * directory.
+     */
+    public static void diff(String id) {
+        Map<String, String> blobs = new TreeMap<>(
+            getCommit(resolveId(id)).getBlobs());
+        for (String file : getStagedBlobs().keySet()) {
+            blobs.putIfAbsent(file, null);
+        }
+        diffWorkingFiles(blobs);
+    }
+
+    /**
+     * Displays the changes from the first commit to the second. Only the
+     * files whose blob IDs differ are read, and renamed files are shown
+     * as renames.
+     */
+    public static void diff(String first, String second) {
+        String firstTree = getCommit(resolveId(first)).getTree();
+        String secondTree = getCommit(resolveId(second)).getTree();
+        Map<String, String[]> changes = Tree.diff(firstTree, secondTree);
+        Map<String, Renames.Rename> renames = Renames.find(changes);
+        Set<String> sources = getSources(renames);
+        try (DiffWriter out = new DiffWriter()) {
+            for (Map.Entry<String, String[]> change : changes.entrySet()) {
+                String file = change.getKey();
+                String[] blobIds = change.getValue();
+                Renames.Rename rename = renames.get(file);
+                if (rename != null) {
+                    out.write(rename, Diff.Lines.of(
+                        changes.get(rename.source)[0]),
+                        Diff.Lines.of(blobIds[1]));
+                } else if (!sources.contains(file)) {
+                    out.write(file, blobIds[0], blobIds[1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the files the next commit would track, mapped to their blob
+     * IDs: the current commit's files with the staged changes applied.
+     */
+    private static Map<String, String> getStagedBlobs() {
+        StagingArea stage = Session.getStage();
+        Map<String, String> blobs = new TreeMap<>(getCommit().getBlobs());
+        blobs.putAll(stage.getAddition());
+        blobs.keySet().removeAll(stage.getRemoval());
+        return blobs;
+    }
+
+    /**
+     * Displays the changes from the given files, mapped to their blob IDs
+     * or null if absent, to the working directory. Files unchanged since
+     * they were last hashed are not read.
+     */
+    private static void diffWorkingFiles(Map<String, String> blobs) {
+        Index index = Session.getIndex();
+        // Maps each changed file to its blob ID and working blob ID.
+        Map<String, String[]> changes = new TreeMap<>();
+        for (Map.Entry<String, String> blob : blobs.entrySet()) {
+            String blobId = blob.getValue();
+            String workingId = index.getBlobId(join(CWD, blob.getKey()));
+            if (workingId == null ? blobId != null
+                : !workingId.equals(blobId)) {
+                changes.put(blob.getKey(), new String[] {blobId, workingId});
+            }
+        }
+        Map<String, Renames.Rename> renames = Renames.find(changes,
+            file -> Diff.Lines.of(join(CWD, file)));
+        Set<String> sources = getSources(renames);
+        try (DiffWriter out = new DiffWriter()) {
+            for (Map.Entry<String, String[]> change : changes.entrySet()) {
+                String file = change.getKey();
+                String blobId = change.getValue()[0];
+                String workingId = change.getValue()[1];
+                Renames.Rename rename = renames.get(file);
+                if (rename != null) {
+                    out.write(rename, Diff.Lines.of(
+                        changes.get(rename.source)[0]),
+                        Diff.Lines.of(join(CWD, file)));
+                } else if (!sources.contains(file)) {
+                    Diff.Lines a = blobId == null
+                        ? Diff.Lines.empty() : Diff.Lines.of(blobId);
+                    Diff.Lines b = workingId == null
+                        ? Diff.Lines.empty() : Diff.Lines.of(join(CWD, file));
+                    out.write(file, a, b, blobId != null, workingId != null);
+                }
+            }
+        }
+    }
+
+    /** Returns the files the given renames and copies were made from. */
+    private static Set<String> getSources(Map<String, Renames.Rename> renames) {
+        Set<String> sources = new TreeSet<>();
+        for (Renames.Rename rename : renames.values()) {
+            sources.add(rename.source);
+        }
+        return sources;
+    }
+
+    /**
+     * Deletes the objects no branch or staged file can reach, as
+     * GarbageCollector describes, then moves the loose blobs and commits
+     * into their packfiles, so each object lookup becomes an index search
+     * plus one positioned read, and rewrites the commit graph.
+     */
+    public static void gc() {
+        long reclaimed = GarbageCollector.run();
+        int blobs = Blob.repack();
+        int trees = Tree.repack();
+        int commits = Commit.repack();
+        CommitGraph.write(getIds());
+        System.out.println("Packed " + blobs + " blobs, " + trees
+            + " trees, and " + commits + " commits. Reclaimed " + reclaimed
+            + " bytes.");
+    }
+
+    /**
+     * Imports the commits and branch moves of the given stream, as
+     * FastImport describes, in one process.
+     */
+    public static void fastImport(InputStream in) {
+        int commits = FastImport.run(in);
+        System.out.println("Imported " + commits + " commits.");
+    }
+
+    /** Imports the stream stored in the given file. */
+    public static void fastImport(String fileName) {
+        File file = join(CWD, fileName);
+        if (!file.isFile()) {
+            String error = "File does not exist.";
             Main.exit(error);
         }
-        checkoutCommit(id);
-        Branch.setId(getBranch(), id);
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            fastImport(in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Prints the value of the given setting. */
+    public static void config(String key) {
+        validateConfig(key);
+        System.out.println(Config.get(key));
+    }
+
+    /** Changes the value of the given setting. */
+    public static void config(String key, String value) {
+        validateConfig(key);
+        if (!Config.isValid(key, value)) {
+            String error = "Invalid value for that setting.";
+            Main.exit(error);
+        }
+        Config.set(key, value);
+    }
+
+    private static void validateConfig(String key) {
+        if (!Config.isKnown(key)) {
+            String error = "No setting with that name exists.";
+            Main.exit(error);
+        }
+    }
+
+    /**
+     * Displays how many blobs are stored and how well chunks are shared,
+     * and how often the commit cache answered loads, which counts every
+     * command since the daemon started when run through it.
+     */
+    public static void stats() {
+        Blob.Stats stats = Blob.stats();
+        System.out.println("Blobs: " + stats.blobs + " ("
+            + stats.chunkedBlobs + " chunked)");
+        System.out.println("Deltas: " + stats.deltas + " (longest chain "
+            + stats.longestChain + ")");
+        System.out.println("Chunked contents: " + stats.chunkedBytes
+            + " bytes");
+        System.out.println("Chunks: " + stats.chunks + " ("
+            + stats.chunkBytes + " bytes)");
+        double ratio = stats.chunkBytes == 0
+            ? 1 : (double) stats.chunkedBytes / stats.chunkBytes;
+        System.out.printf("Deduplication ratio: %.2f%n", ratio);
+        System.out.println("Commit cache: " + Commit.cacheHits() + " hits, "
+            + Commit.cacheMisses() + " misses");
     }
 
     /** Merges files from the given branch into the current branch. */
     public static void merge(String branch) {
         validateMerge(branch);
-        // Latest common ancestor of the current and given branches.
         String currentId = getId();
-        String givenId = Branch.getId(branch);
-        String splitId = findSplit(currentId, givenId);
-        if (splitId.equals(givenId)) {
+        String givenId = Session.getId(branch);
+        CommitGraph graph = CommitGraph.get();
+        if (graph.isAncestor(givenId, currentId)) {
             // The split point is the same commit as the given branch.
             String msg = "Given branch is an ancestor of the current branch.";
             System.out.println(msg);
             return;
         }
-        if (splitId.equals(currentId)) {
+        if (graph.isAncestor(currentId, givenId)) {
             // The split point is the current branch.
             // Checks out the given branch.
             checkoutBranch(branch);
             System.out.println("Current branch fast-forwarded.");
             return;
         }
+        // Latest common ancestor of the current and given branches.
+        String splitId = MergeBase.find(graph, currentId, givenId);
         boolean conflict = mergeBranch(currentId, givenId, splitId);
         String message = "Merged " + branch + " into " + getBranch() + ".";
         commit(message, currentId, givenId);
@@ -519,7 +884,7 @@ public class Repository {
     }
 
     private static void validateMerge(String branch) {
-        StagingArea stage = StagingArea.load();
+        StagingArea stage = Session.getStage();
         if (!stage.isEmpty()) {
             // There are staged additions or removals present.
             String error = "You have uncommitted changes.";
@@ -530,13 +895,13 @@ public class Repository {
             String error = "Cannot merge a branch with itself.";
             Main.exit(error);
         }
-        Commit given = getCommit(Branch.getId(branch));
+        Commit given = getCommit(Session.getId(branch));
         for (String file : getUntrackedFiles()) {
             /*
              * An untracked file in the current commit would be overwritten or
              * deleted by the merge.
              */
-            if (given.getBlobs().containsKey(file)) {
+            if (given.getBlobId(file) != null) {
                 String error = "There is an untracked file in the way; "
                     + "delete it, or add and commit it first.";
                 Main.exit(error);
@@ -544,51 +909,6 @@ public class Repository {
         }
     }
 
-    /**
-     * Returns the ID of the latest common ancestor of the current and given
-     * branches.
-     */
-    private static String findSplit(String currentId, String givenId) {
-        // Breadth-first search to find the latest common ancestor.
-        Queue<String> queue = new LinkedList<>(); // Commit IDs to visit.
-        Set<String> visited = new HashSet<>(); // Visited commit IDs.
-        queue.add(currentId);
-        // Visits all the ancestors of the current branch.
-        while (!queue.isEmpty()) {
-            String id = queue.poll();
-            Commit commit = getCommit(id);
-            visited.add(id);
-            // Adds the first and second parents to the queue.
-            String firstParent = commit.getfirstParent();
-            if (firstParent != null) {
-                queue.add(firstParent);
-            }
-            String secondParent = commit.getSecondParent();
-            if (secondParent != null) {
-                queue.add(secondParent);
-            }
-        }
-        queue.add(givenId);
-        // Visits the ancestors of the given branch until a common ancestor.
-        while (!queue.isEmpty()) {
-            String id = queue.poll();
-            if (visited.contains(id)) {
-                // Found the latest common ancestor.
-                return id;
-            }
-            Commit commit = getCommit(id);
-            String firstParent = commit.getfirstParent();
-            if (firstParent != null) {
-                queue.add(firstParent);
-            }
-            String secondParent = commit.getSecondParent();
-            if (secondParent != null) {
-                queue.add(secondParent);
-            }
-        }
-        return null;
-    }
-
     /**
      * Merges files from the given branch into the current branch. Returns
      * true if a merge conflict occurs.
@@ -597,85 +917,7 @@ public class Repository {
         String current,
         String given,
         String split) {
-        boolean hasConflict = false;
-        Map<String, String> currentBlobs = getCommit(current).getBlobs();
-        Map<String, String> givenBlobs = getCommit(given).getBlobs();
-        Map<String, String> splitBlobs = getCommit(split).getBlobs();
-        Set<String> files = new HashSet<>();
-        files.addAll(currentBlobs.keySet());
-        files.addAll(givenBlobs.keySet());
-        for (String file : files) {
-            boolean conflict = false;
-            String currentBlobId = currentBlobs.get(file);
-            String givenBlobId = givenBlobs.get(file);
-            String splitBlobId = splitBlobs.get(file);
-            if (currentBlobId != null && givenBlobId != null
-                && splitBlobId != null && currentBlobId.equals(splitBlobId)
-                && !givenBlobId.equals(splitBlobId) || currentBlobId == null
-                && givenBlobId != null && splitBlobId == null) {
-                /*
-                 * File is modified in the given branch but not the current
-                 * branch or file is present only in the given branch.
-                 */
-                checkoutFile(given, file);
-                add(file);
-            } else if (splitBlobId != null && currentBlobId != null
-                && currentBlobId.equals(splitBlobId)
-                && givenBlobId == null) {
-                /*
-                 * File was present at the split point, is unmodified in the
-                 * current branch, and is absent in the given branch.
-                 */
-                rm(file);
-            } else if (currentBlobId != null && givenBlobId != null
-                && splitBlobId != null && !currentBlobId.equals(splitBlobId)
-                && !givenBlobId.equals(splitBlobId)) {
-                // Contents of both are changed and different from other.
-                conflict = !currentBlobId.equals(givenBlobId);
-            } else if (currentBlobId != null && givenBlobId == null
-                && splitBlobId != null) {
-                // Contents of one are changed and the other file is deleted.
-                conflict = !currentBlobId.equals(splitBlobId);
-            } else if (currentBlobId == null && givenBlobId != null
-                && splitBlobId != null) {
-                conflict = !givenBlobId.equals(splitBlobId);
-            } else if (splitBlobId == null && currentBlobId != null
-                && givenBlobId != null) {
-                /*
-                 * File was absent at the split point and has different
-                 * contents in the given and current branches.
-                 */
-                conflict = !currentBlobId.equals(givenBlobId);
-            }
-            if (conflict) {
-                writeContents(
-                    join(CWD, file),
-                    conflictContent(file, currentBlobs, givenBlobs)
-                );
-                add(file);
-                hasConflict = true;
-            }
-        }
-        return hasConflict;
-    }
-
-    private static String conflictContent(
-        String file,
-        Map<String, String> currentBlobs,
-        Map<String, String> givenBlobs) {
-        String content = "<<<<<<< HEAD\n";
-        if (currentBlobs.containsKey(file)) {
-            content += readContentsAsString(
-                join(Blob.BLOBS, currentBlobs.get(file))
-            );
-        }
-        content += "=======\n";
-        if (givenBlobs.containsKey(file)) {
-            content += readContentsAsString(
-                join(Blob.BLOBS, givenBlobs.get(file))
-            );
-        }
-        content += ">>>>>>>\n";
-        return content;
+        return new MergePlan(getCommit(split), getCommit(current),
+            getCommit(given)).run();
     }
 }
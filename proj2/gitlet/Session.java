@@ -0,0 +1,121 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Holds the repository state one Gitlet command works on: the current
+ * branch, the branch heads, the staging area, and the stat cache. Each is
+ * read from disk at most once per command, and whatever the command
+ * changed is written back once by flush, as one journal transaction. A
+ * command that exits early through Main.exit never flushes, so it leaves
+ * the state untouched.
+ */
+class Session {
+    // Current branch, or null until HEAD is read.
+    private static String branch;
+    private static boolean branchChanged;
+    // Branch heads read or set so far, null for a missing branch.
+    private static final Map<String, String> heads = new TreeMap<>();
+    private static final Map<String, String> changedHeads = new TreeMap<>();
+    private static StagingArea stage;
+    private static boolean stageChanged;
+    private static Index index;
+
+    private Session() {
+    }
+
+    /** Forgets the state read by the previous command. */
+    static void reset() {
+        branch = null;
+        branchChanged = false;
+        heads.clear();
+        changedHeads.clear();
+        stage = null;
+        stageChanged = false;
+        index = null;
+    }
+
+    /** Returns the name of the current branch. */
+    static String getBranch() {
+        if (branch == null) {
+            branch = HEAD.getBranch();
+        }
+        return branch;
+    }
+
+    /** Makes the given branch the current branch. */
+    static void setBranch(String name) {
+        branch = name;
+        branchChanged = true;
+    }
+
+    /**
+     * Returns the ID of the head commit of the given branch, or null if
+     * there is no such branch.
+     */
+    static String getId(String name) {
+        if (!heads.containsKey(name)) {
+            heads.put(name, Branch.getId(name));
+        }
+        return heads.get(name);
+    }
+
+    /** Points the given branch, which is created if needed, at ID. */
+    static void setId(String name, String id) {
+        heads.put(name, id);
+        changedHeads.put(name, id);
+    }
+
+    /** Deletes the given branch. */
+    static void removeBranch(String name) {
+        setId(name, null);
+    }
+
+    /** Returns the staging area. */
+    static StagingArea getStage() {
+        if (stage == null) {
+            stage = StagingArea.load();
+        }
+        return stage;
+    }
+
+    /** Records that the staging area has changed and must be saved. */
+    static void stageChanged() {
+        getStage();
+        stageChanged = true;
+    }
+
+    /** Returns the stat cache of the working files. */
+    static Index getIndex() {
+        if (index == null) {
+            index = Index.load();
+        }
+        return index;
+    }
+
+    /** Writes back the state changed by the command. */
+    static void flush() {
+        for (Map.Entry<String, String> head : changedHeads.entrySet()) {
+            if (head.getValue() == null) {
+                Journal.delete(join(Branch.BRANCHES, head.getKey()));
+            } else {
+                Branch.setId(head.getKey(), head.getValue());
+            }
+        }
+        changedHeads.clear();
+        if (branchChanged) {
+            HEAD.setBranch(branch);
+            branchChanged = false;
+        }
+        if (stageChanged) {
+            stage.save();
+            stageChanged = false;
+        }
+        if (index != null) {
+            index.save();
+        }
+        Journal.commit();
+    }
+}
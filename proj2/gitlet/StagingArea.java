@@ -2,14 +2,13 @@ package gitlet;
 
 import static gitlet.Utils.*;
 import java.io.File;
-import java.io.Serializable;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.Set;
 import java.util.TreeSet;
 
 /** Represents the staging area in a Gitlet version control system. */
-public class StagingArea implements Serializable {
+public class StagingArea {
     private static final File STAGE = join(Repository.GITLET, "stage");
     // Maps the name of the file staged for addition to the blob ID.
     private Map<String, String> addition;
@@ -29,12 +28,41 @@ public class StagingArea implements Serializable {
         return removal;
     }
 
+    /** Returns the binary encoding of the staging area. */
+    byte[] encode() {
+        Encoding.Output out = new Encoding.Output(Encoding.STAGE);
+        out.writeInt(addition.size());
+        for (Map.Entry<String, String> entry : addition.entrySet()) {
+            out.writeString(entry.getKey()).writeString(entry.getValue());
+        }
+        out.writeInt(removal.size());
+        for (String file : removal) {
+            out.writeString(file);
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the staging area with the given binary encoding. */
+    static StagingArea decode(byte[] encoded) {
+        Encoding.Input in = new Encoding.Input(encoded, Encoding.STAGE);
+        StagingArea stage = new StagingArea();
+        int count = in.readInt();
+        for (int i = 0; i < count; i += 1) {
+            stage.addition.put(in.readString(), in.readString());
+        }
+        count = in.readInt();
+        for (int i = 0; i < count; i += 1) {
+            stage.removal.add(in.readString());
+        }
+        return stage;
+    }
+
     public void save() {
-        writeObject(STAGE, this);
+        Journal.write(STAGE, encode());
     }
 
     public static StagingArea load() {
-        return readObject(STAGE, StagingArea.class);
+        return decode(readContents(STAGE));
     }
 
     public void clear() {
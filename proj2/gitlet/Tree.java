@@ -0,0 +1,352 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Represents a content-addressed tree of the files in a commit. A tree with
+ * few files is a leaf mapping each file name to its blob ID. A larger tree
+ * splits its files among up to sixteen subtrees by the next hexadecimal
+ * digit of the SHA-1 hash of each file name, so the shape of a tree only
+ * depends on the files in it. Commits that change a few files rewrite only
+ * the nodes on the paths to them and share every other subtree by ID.
+ *
+ * A leaf is encoded as its entry count and then the name and blob ID of
+ * each file; a split tree as its file count, its subtree count, and then
+ * the digit and ID of each subtree.
+ */
+public class Tree {
+    public static final File TREES = join(Repository.GITLET, "trees");
+    private static final ObjectStore STORE = new ObjectStore(TREES, "trees");
+    // Trees loaded during this command.
+    private static final ObjectCache<Tree> CACHE = new ObjectCache<>(4096);
+    // Most files a leaf holds before it is split.
+    private static final int MAX_ENTRIES = 64;
+    // Kinds of encoded trees.
+    private static final byte LEAF = 0;
+    private static final byte SPLIT = 1;
+
+    // Maps the file name to the blob ID, or null if the tree is split.
+    private TreeMap<String, String> entries;
+    // Maps the hash digit of the file names to the subtree ID.
+    private TreeMap<Character, String> children;
+    // Number of files in the tree.
+    private int size;
+
+    private Tree(TreeMap<String, String> files) {
+        entries = files;
+        size = files.size();
+    }
+
+    private Tree(TreeMap<Character, String> subtrees, int fileCount) {
+        children = subtrees;
+        size = fileCount;
+    }
+
+    /** Reads a tree from its encoding. */
+    private Tree(byte[] encoded) {
+        Encoding.Input in = new Encoding.Input(encoded, Encoding.TREE);
+        if (in.readByte() == LEAF) {
+            entries = new TreeMap<>();
+            size = in.readInt();
+            for (int i = 0; i < size; i += 1) {
+                entries.put(in.readString(), in.readString());
+            }
+        } else {
+            children = new TreeMap<>();
+            size = in.readInt();
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                children.put((char) in.readByte(), in.readString());
+            }
+        }
+    }
+
+    private byte[] encode() {
+        Encoding.Output out = new Encoding.Output(Encoding.TREE);
+        if (isLeaf()) {
+            out.writeByte(LEAF).writeInt(size);
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                out.writeString(entry.getKey()).writeString(entry.getValue());
+            }
+        } else {
+            out.writeByte(SPLIT).writeInt(size).writeInt(children.size());
+            for (Map.Entry<Character, String> child : children.entrySet()) {
+                out.writeByte(child.getKey()).writeString(child.getValue());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private boolean isLeaf() {
+        return entries != null;
+    }
+
+    /** Saves a tree holding the given files and returns its ID. */
+    public static String write(Map<String, String> files) {
+        return build(new TreeMap<>(files), 0);
+    }
+
+    /**
+     * Returns the ID of the tree that results from adding the files in
+     * ADDITION to the tree with the given ID and removing those in REMOVAL.
+     * Only the nodes on the paths to the changed files are rewritten.
+     */
+    public static String update(
+        String id,
+        Map<String, String> addition,
+        Set<String> removal) {
+        Map<String, String> changes = new HashMap<>();
+        for (String file : removal) {
+            changes.put(file, null);
+        }
+        changes.putAll(addition);
+        if (changes.isEmpty()) {
+            return id;
+        }
+        return update(id, 0, changes);
+    }
+
+    private static String update(
+        String id,
+        int depth,
+        Map<String, String> changes) {
+        Tree tree = load(id);
+        if (tree.isLeaf()) {
+            TreeMap<String, String> files = new TreeMap<>(tree.entries);
+            apply(files, changes);
+            return build(files, depth);
+        }
+        Map<Character, Map<String, String>> groups = group(changes, depth);
+        TreeMap<Character, String> subtrees = new TreeMap<>(tree.children);
+        int size = tree.size;
+        for (Map.Entry<Character, Map<String, String>> group
+                 : groups.entrySet()) {
+            String oldId = subtrees.get(group.getKey());
+            String newId;
+            if (oldId == null) {
+                TreeMap<String, String> files = new TreeMap<>();
+                apply(files, group.getValue());
+                newId = build(files, depth + 1);
+            } else {
+                size -= load(oldId).size;
+                newId = update(oldId, depth + 1, group.getValue());
+            }
+            int newSize = load(newId).size;
+            size += newSize;
+            if (newSize == 0) {
+                subtrees.remove(group.getKey());
+            } else {
+                subtrees.put(group.getKey(), newId);
+            }
+        }
+        if (size <= MAX_ENTRIES) {
+            // Few enough files are left to merge the subtrees into a leaf.
+            TreeMap<String, String> files = new TreeMap<>();
+            for (String subtree : subtrees.values()) {
+                read(subtree, files);
+            }
+            return new Tree(files).save();
+        }
+        return new Tree(subtrees, size).save();
+    }
+
+    /** Puts the changed files into FILES, removing those mapped to null. */
+    private static void apply(
+        Map<String, String> files,
+        Map<String, String> changes) {
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                files.remove(change.getKey());
+            } else {
+                files.put(change.getKey(), change.getValue());
+            }
+        }
+    }
+
+    /** Saves the tree of the given files at the given depth. */
+    private static String build(TreeMap<String, String> files, int depth) {
+        if (files.size() <= MAX_ENTRIES) {
+            return new Tree(files).save();
+        }
+        TreeMap<Character, String> subtrees = new TreeMap<>();
+        for (Map.Entry<Character, Map<String, String>> group
+                 : group(files, depth).entrySet()) {
+            subtrees.put(group.getKey(),
+                build(new TreeMap<>(group.getValue()), depth + 1));
+        }
+        return new Tree(subtrees, files.size()).save();
+    }
+
+    /** Groups the given files by the digit of their name hash at DEPTH. */
+    private static Map<Character, Map<String, String>> group(
+        Map<String, String> files,
+        int depth) {
+        Map<Character, Map<String, String>> groups = new TreeMap<>();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            char digit = digit(file.getKey(), depth);
+            groups.computeIfAbsent(digit, k -> new HashMap<>())
+                .put(file.getKey(), file.getValue());
+        }
+        return groups;
+    }
+
+    private static char digit(String file, int depth) {
+        return sha1(file).charAt(depth);
+    }
+
+    /** Returns all the files in the tree with the given ID. */
+    public static Map<String, String> read(String id) {
+        Map<String, String> files = new TreeMap<>();
+        read(id, files);
+        return files;
+    }
+
+    private static void read(String id, Map<String, String> files) {
+        Tree tree = load(id);
+        if (tree.isLeaf()) {
+            files.putAll(tree.entries);
+        } else {
+            for (String subtree : tree.children.values()) {
+                read(subtree, files);
+            }
+        }
+    }
+
+    /**
+     * Returns the blob ID of the given file in the tree with the given ID,
+     * or null if the file is not in it.
+     */
+    public static String get(String id, String file) {
+        Tree tree = load(id);
+        String hash = sha1(file);
+        for (int depth = 0; !tree.isLeaf(); depth += 1) {
+            String subtree = tree.children.get(hash.charAt(depth));
+            if (subtree == null) {
+                return null;
+            }
+            tree = load(subtree);
+        }
+        return tree.entries.get(file);
+    }
+
+    /**
+     * Returns the files that differ between the trees with the given IDs,
+     * mapped to their blob IDs in the first and second tree, either of
+     * which is null if the file is absent from that tree. Subtrees with the
+     * same ID are skipped without being read.
+     */
+    public static Map<String, String[]> diff(String first, String second) {
+        Map<String, String[]> changes = new TreeMap<>();
+        diff(first, second, changes);
+        return changes;
+    }
+
+    private static void diff(
+        String first,
+        String second,
+        Map<String, String[]> changes) {
+        if (first != null && first.equals(second)) {
+            return;
+        }
+        Tree one = first == null ? null : load(first);
+        Tree two = second == null ? null : load(second);
+        if (one != null && two != null && !one.isLeaf() && !two.isLeaf()) {
+            TreeMap<Character, String> digits = new TreeMap<>(one.children);
+            digits.putAll(two.children);
+            for (Character digit : digits.keySet()) {
+                diff(one.children.get(digit), two.children.get(digit),
+                    changes);
+            }
+            return;
+        }
+        Map<String, String> files = new TreeMap<>();
+        Map<String, String> others = new TreeMap<>();
+        if (first != null) {
+            read(first, files);
+        }
+        if (second != null) {
+            read(second, others);
+        }
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            String other = others.get(file.getKey());
+            if (!file.getValue().equals(other)) {
+                changes.put(file.getKey(),
+                    new String[] {file.getValue(), other});
+            }
+        }
+        for (Map.Entry<String, String> other : others.entrySet()) {
+            if (!files.containsKey(other.getKey())) {
+                changes.put(other.getKey(),
+                    new String[] {null, other.getValue()});
+            }
+        }
+    }
+
+    private String save() {
+        byte[] contents = encode();
+        String id = sha1(contents);
+        STORE.write(id, contents);
+        CACHE.put(id, this);
+        return id;
+    }
+
+    private static Tree load(String id) {
+        Tree tree = CACHE.get(id);
+        if (tree != null) {
+            return tree;
+        }
+        byte[] contents = STORE.read(id);
+        if (contents == null) {
+            throw error("Missing tree %s.", id);
+        }
+        tree = new Tree(contents);
+        CACHE.put(id, tree);
+        return tree;
+    }
+
+    /**
+     * Adds the tree with the given ID and its subtrees to TREES, and the
+     * blobs of their files to BLOBS. Subtrees already added are skipped,
+     * so trees shared by many commits are read once.
+     */
+    public static void reach(String id, Set<String> trees, Set<String> blobs) {
+        if (!trees.add(id)) {
+            return;
+        }
+        Tree tree = load(id);
+        if (tree.isLeaf()) {
+            blobs.addAll(tree.entries.values());
+        } else {
+            for (String subtree : tree.children.values()) {
+                reach(subtree, trees, blobs);
+            }
+        }
+    }
+
+    /**
+     * Returns the IDs of the trees not in REACHED that were stored at or
+     * after CUTOFF.
+     */
+    public static List<String> recent(Set<String> reached, long cutoff) {
+        return STORE.recent(reached, cutoff);
+    }
+
+    /**
+     * Deletes the trees not in KEEP that were stored before CUTOFF. Returns
+     * the number of bytes freed.
+     */
+    public static long prune(Set<String> keep, long cutoff) {
+        return STORE.prune(keep, cutoff);
+    }
+
+    /** Moves the loose trees into the packfile. */
+    public static int repack() {
+        return STORE.repack();
+    }
+}
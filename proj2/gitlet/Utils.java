@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -9,13 +10,16 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
+import java.util.HexFormat;
 import java.util.List;
 
 
@@ -47,11 +51,7 @@ class Utils {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
+            return HexFormat.of().formatHex(md.digest());
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
@@ -63,6 +63,28 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the SHA-1 hash of the concatenation of PREFIX and the
+     *  contents of FILE, which is read in chunks of BUFFERSIZE bytes so
+     *  that files of any size can be hashed.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static String sha1(byte[] prefix, File file, int bufferSize) {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(prefix);
+            ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+            return HexFormat.of().formatHex(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -204,6 +226,20 @@ class Utils {
         return Paths.get(first.getPath(), others).toFile();
     }
 
+    /** Returns a stamp of FILE that differs once FILE is modified or
+     *  replaced: its file key, modification time, and size.  Returns null
+     *  if FILE does not exist. */
+    static List<Object> stamp(File file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(
+                file.toPath(), BasicFileAttributes.class);
+            return Arrays.asList(attributes.fileKey(),
+                attributes.lastModifiedTime(), attributes.size());
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
 
     /* SERIALIZATION UTILITIES */
 
@@ -220,6 +256,22 @@ class Utils {
         }
     }
 
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */